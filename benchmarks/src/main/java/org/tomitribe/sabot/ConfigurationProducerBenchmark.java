@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.tomitribe.sabot;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.enterprise.inject.spi.InjectionPoint;
+import java.io.File;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Injects every @Config field of a 20 field bean through ConfigurationProducer.resolveAndConvert,
+ * the work done per bean creation for a dependent or request-scoped bean.
+ * Also compiles the plans of the same fields with a fresh resolver, the work ConfigurationExtension
+ * does once per injection point at deployment.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConfigurationProducerBenchmark {
+
+    private ConfigurationProducer producer;
+    private InjectionPoint[] injectionPoints;
+
+    @Setup
+    public void setup() {
+        producer = new ConfigurationProducer();
+
+        final List<InjectionPoint> list = StubInjectionPoint.of(Settings.class);
+        injectionPoints = list.toArray(new InjectionPoint[list.size()]);
+    }
+
+    @Benchmark
+    public void createBean(final Blackhole blackhole) {
+        for (final InjectionPoint injectionPoint : injectionPoints) {
+            blackhole.consume(producer.resolveAndConvert(injectionPoint));
+        }
+    }
+
+    @Benchmark
+    public void compilePlans(final Blackhole blackhole) {
+        final ConfigurationResolver resolver = new ConfigurationResolver();
+        for (final InjectionPoint injectionPoint : injectionPoints) {
+            blackhole.consume(ResolutionPlan.of(resolver, injectionPoint));
+        }
+    }
+
+    @SuppressWarnings("unused")
+    public static class Settings {
+
+        @Config(value = "bench.string.1", defaultValue = "one")
+        private String string1;
+
+        @Config(value = "bench.string.2", defaultValue = "two")
+        private String string2;
+
+        @Config(value = "bench.string.3", defaultValue = "three")
+        private String string3;
+
+        @Config(value = "bench.string.4", defaultValue = "four")
+        private String string4;
+
+        @Config(value = "bench.int.1", defaultValue = "1")
+        private int int1;
+
+        @Config(value = "bench.int.2", defaultValue = "2000")
+        private int int2;
+
+        @Config(value = "bench.integer.1", defaultValue = "30000")
+        private Integer integer1;
+
+        @Config(value = "bench.integer.2", defaultValue = "0x400")
+        private Integer integer2;
+
+        @Config(value = "bench.long.1", defaultValue = "60000")
+        private long long1;
+
+        @Config(value = "bench.long.2", defaultValue = "3600000")
+        private Long long2;
+
+        @Config(value = "bench.boolean.1", defaultValue = "true")
+        private boolean boolean1;
+
+        @Config(value = "bench.boolean.2", defaultValue = "false")
+        private Boolean boolean2;
+
+        @Config(value = "bench.double.1", defaultValue = "0.75")
+        private double double1;
+
+        @Config(value = "bench.double.2", defaultValue = "1.5")
+        private Double double2;
+
+        @Config(value = "bench.unit.1", defaultValue = "SECONDS")
+        private TimeUnit unit1;
+
+        @Config(value = "bench.unit.2", defaultValue = "milliseconds")
+        private TimeUnit unit2;
+
+        @Config(value = "bench.file.1", defaultValue = "./conf")
+        private File file1;
+
+        @Config(value = "bench.file.2", defaultValue = "./logs")
+        private File file2;
+
+        @Config(value = "bench.uri.1", defaultValue = "http://localhost:8080/")
+        private URI uri1;
+
+        @Config(value = "bench.uri.2", defaultValue = "http://localhost:8443/")
+        private URI uri2;
+    }
+}
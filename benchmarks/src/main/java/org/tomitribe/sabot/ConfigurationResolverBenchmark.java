@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.tomitribe.sabot;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ConfigurationResolver lookups from many threads at once: the plain String lookup,
+ * the converted lookup used by injection, the primitive accessor and the ConfigValue read.
+ * With and without metrics, to keep an eye on the cost of counting lookups.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConfigurationResolverBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Shared {
+
+        @Param({"100", "10000"})
+        public int size;
+
+        @Param({"false", "true"})
+        public boolean metrics;
+
+        public ConfigurationResolver resolver;
+        public ConfigValue<Integer> value;
+        public String[] keys;
+
+        private File dir;
+
+        @Setup
+        public void setup() throws IOException {
+            dir = File.createTempFile("sabot-resolver", "");
+            if (!dir.delete() || !dir.mkdirs()) {
+                throw new IOException("Unable to create " + dir);
+            }
+
+            keys = new String[size];
+            final Writer writer = new OutputStreamWriter(new FileOutputStream(new File(dir, "base.properties")), "ISO-8859-1");
+            try {
+                for (int i = 0; i < size; i++) {
+                    keys[i] = "config.key." + i;
+                    writer.write(keys[i] + " = " + i + "\n");
+                }
+            } finally {
+                writer.close();
+            }
+
+            // The configuration is loaded from the context class loader on first use
+            final Thread thread = Thread.currentThread();
+            final ClassLoader previous = thread.getContextClassLoader();
+            thread.setContextClassLoader(new URLClassLoader(new URL[]{dir.toURI().toURL()}, null));
+            System.setProperty(ConfigurationResolver.METRICS, String.valueOf(metrics));
+            try {
+                resolver = new ConfigurationResolver();
+                value = resolver.getConfigValue(keys[0], "", Integer.class);
+            } finally {
+                thread.setContextClassLoader(previous);
+                System.clearProperty(ConfigurationResolver.METRICS);
+            }
+        }
+
+        @TearDown
+        public void tearDown() {
+            new File(dir, "base.properties").delete();
+            dir.delete();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        private int index;
+
+        public String next(final String[] keys) {
+            index = (index + 1) % keys.length;
+            return keys[index];
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String resolve1(final Shared shared, final Cursor cursor) {
+        return shared.resolver.resolve(cursor.next(shared.keys), "");
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String resolve8(final Shared shared, final Cursor cursor) {
+        return shared.resolver.resolve(cursor.next(shared.keys), "");
+    }
+
+    @Benchmark
+    @Threads(64)
+    public String resolve64(final Shared shared, final Cursor cursor) {
+        return shared.resolver.resolve(cursor.next(shared.keys), "");
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object resolveInteger1(final Shared shared, final Cursor cursor) {
+        return shared.resolver.resolve(cursor.next(shared.keys), "", Integer.class);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Object resolveInteger8(final Shared shared, final Cursor cursor) {
+        return shared.resolver.resolve(cursor.next(shared.keys), "", Integer.class);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public Object resolveInteger64(final Shared shared, final Cursor cursor) {
+        return shared.resolver.resolve(cursor.next(shared.keys), "", Integer.class);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int getInt1(final Shared shared, final Cursor cursor) {
+        return shared.resolver.getInt(cursor.next(shared.keys), 0);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public int getInt64(final Shared shared, final Cursor cursor) {
+        return shared.resolver.getInt(cursor.next(shared.keys), 0);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public Integer configValue64(final Shared shared) {
+        return shared.value.get();
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.tomitribe.sabot;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the lock-free ConfigurationSnapshot lookup against the synchronized Properties
+ * lookup the ConfigurationResolver used previously, at 1, 8 and 64 threads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConfigurationSnapshotBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Shared {
+
+        @Param({"100", "10000"})
+        public int size;
+
+        public Properties properties;
+        public ConfigurationSnapshot snapshot;
+        public String[] keys;
+
+        @Setup
+        public void setup() {
+            properties = new Properties();
+            keys = new String[size];
+            for (int i = 0; i < size; i++) {
+                keys[i] = "config.key." + i;
+                properties.setProperty(keys[i], "value-" + i);
+            }
+            snapshot = new ConfigurationSnapshot(properties);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        private int index;
+
+        public String next(final String[] keys) {
+            index = (index + 1) % keys.length;
+            return keys[index];
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String properties1(final Shared shared, final Cursor cursor) {
+        return shared.properties.getProperty(cursor.next(shared.keys), "");
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String properties8(final Shared shared, final Cursor cursor) {
+        return shared.properties.getProperty(cursor.next(shared.keys), "");
+    }
+
+    @Benchmark
+    @Threads(64)
+    public String properties64(final Shared shared, final Cursor cursor) {
+        return shared.properties.getProperty(cursor.next(shared.keys), "");
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String snapshot1(final Shared shared, final Cursor cursor) {
+        return shared.snapshot.get(cursor.next(shared.keys));
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String snapshot8(final Shared shared, final Cursor cursor) {
+        return shared.snapshot.get(cursor.next(shared.keys));
+    }
+
+    @Benchmark
+    @Threads(64)
+    public String snapshot64(final Shared shared, final Cursor cursor) {
+        return shared.snapshot.get(cursor.next(shared.keys));
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.tomitribe.sabot;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.resource.ResourceException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads a layered environment (base plus five environments) of synthetic properties files,
+ * comparing Environments.getProperties with a sequential Properties.load(InputStream) of the same layers.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EnvironmentsBenchmark {
+
+    private static final String[] LAYERS = {"base", "layer1", "layer2", "layer3", "layer4", "layer5"};
+    private static final String ENVIRONMENTS = "layer1,layer2,layer3,layer4,layer5";
+
+    @Param({"1000", "100000"})
+    public int keys;
+
+    private File dir;
+    private ClassLoader loader;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = File.createTempFile("sabot-environments", "");
+        if (!dir.delete() || !dir.mkdirs()) {
+            throw new IOException("Unable to create " + dir);
+        }
+
+        for (int layer = 0; layer < LAYERS.length; layer++) {
+            final Writer writer = new OutputStreamWriter(new FileOutputStream(new File(dir, LAYERS[layer] + ".properties")), "ISO-8859-1");
+            try {
+                writer.write("# generated layer " + LAYERS[layer] + "\n");
+                for (int i = 0; i < keys; i++) {
+                    // Each layer overrides a slice of the keys
+                    if (layer == 0 || i % LAYERS.length == layer) {
+                        writer.write("service." + i + ".url = https://host-" + layer + ".supertribe.org:" + (8000 + i % 1000) + "/service/" + i + "\n");
+                    }
+                }
+            } finally {
+                writer.close();
+            }
+        }
+
+        loader = new URLClassLoader(new URL[]{dir.toURI().toURL()}, null);
+    }
+
+    @TearDown
+    public void tearDown() {
+        final File[] files = dir.listFiles();
+        if (null != files) {
+            for (final File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Benchmark
+    public Properties environments() throws ResourceException {
+        final Thread thread = Thread.currentThread();
+        final ClassLoader previous = thread.getContextClassLoader();
+        thread.setContextClassLoader(loader);
+        try {
+            return Environments.getProperties(ENVIRONMENTS);
+        } finally {
+            thread.setContextClassLoader(previous);
+        }
+    }
+
+    @Benchmark
+    public Properties sequentialStreams() throws IOException {
+        final Properties properties = new Properties();
+        for (final String layer : LAYERS) {
+            final Properties loaded = new Properties();
+            final InputStream in = loader.getResource(layer + ".properties").openStream();
+            try {
+                loaded.load(in);
+            } finally {
+                in.close();
+            }
+            properties.putAll(loaded);
+        }
+        return Interpolation.interpolate(properties);
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.tomitribe.sabot;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Interpolates a whole configuration with Interpolation.interpolate. Keys are grouped in chains,
+ * each key of a chain referencing the previous one, so depth 0 has no references at all.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InterpolationBenchmark {
+
+    @Param({"100", "10000", "100000"})
+    public int keys;
+
+    @Param({"0", "1", "4", "16"})
+    public int depth;
+
+    private Properties properties;
+
+    @Setup
+    public void setup() {
+        properties = new Properties();
+        for (int i = 0; i < keys; i++) {
+            if (i % (depth + 1) == 0) {
+                properties.setProperty("service." + i + ".url", "https://srv" + i + ".supertribe.org:1443");
+            } else {
+                properties.setProperty("service." + i + ".url", "${service." + (i - 1) + ".url}/" + i);
+            }
+        }
+    }
+
+    @Benchmark
+    public Properties interpolate() {
+        return Interpolation.interpolate(properties);
+    }
+}
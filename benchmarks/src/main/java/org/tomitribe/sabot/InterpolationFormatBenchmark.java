@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.tomitribe.sabot;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Formats a single value with Interpolation.format for placeholder-free,
+ * single-reference and nested-reference input.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class InterpolationFormatBenchmark {
+
+    @Param({"plain", "single", "nested"})
+    public String kind;
+
+    private final Map<String, String> values = new HashMap<String, String>();
+    private final StringBuilder buf = new StringBuilder();
+    private String input;
+
+    @Setup
+    public void setup() {
+        values.put("remote.host", "srv1114.supertribe.org");
+        values.put("remote.port", "1443");
+        values.put("env", "prod");
+        values.put("remote.prod.url", "https://srv1114.supertribe.org:1443/remote/service/url");
+
+        if ("plain".equals(kind)) {
+            input = "https://srv1114.supertribe.org:1443/remote/service/url";
+        } else if ("single".equals(kind)) {
+            input = "https://${remote.host}:1443/remote/service/url";
+        } else {
+            input = "${remote.${env}.url}";
+        }
+    }
+
+    @Benchmark
+    public String format() {
+        return Interpolation.format(input, values, buf);
+    }
+}
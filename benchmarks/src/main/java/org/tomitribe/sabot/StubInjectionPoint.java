@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.tomitribe.sabot;
+
+import javax.enterprise.inject.spi.Annotated;
+import javax.enterprise.inject.spi.AnnotatedField;
+import javax.enterprise.inject.spi.AnnotatedType;
+import javax.enterprise.inject.spi.Bean;
+import javax.enterprise.inject.spi.InjectionPoint;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Minimal field InjectionPoint so the producer can be driven without a CDI container
+ */
+public class StubInjectionPoint implements InjectionPoint {
+
+    private final Field field;
+    private final Annotated annotated;
+
+    public StubInjectionPoint(final Field field) {
+        this.field = field;
+        this.annotated = new StubAnnotatedField(field);
+    }
+
+    /**
+     * @param type Class declaring @Config fields
+     * @return One InjectionPoint per @Config field
+     */
+    public static List<InjectionPoint> of(final Class<?> type) {
+        final List<InjectionPoint> injectionPoints = new ArrayList<InjectionPoint>();
+        for (final Field field : type.getDeclaredFields()) {
+            if (field.isAnnotationPresent(Config.class)) {
+                injectionPoints.add(new StubInjectionPoint(field));
+            }
+        }
+        return injectionPoints;
+    }
+
+    @Override
+    public Type getType() {
+        return field.getGenericType();
+    }
+
+    @Override
+    public Set<Annotation> getQualifiers() {
+        return new HashSet<Annotation>(Arrays.asList(field.getAnnotations()));
+    }
+
+    @Override
+    public Bean<?> getBean() {
+        return null;
+    }
+
+    @Override
+    public Member getMember() {
+        return field;
+    }
+
+    @Override
+    public Annotated getAnnotated() {
+        return annotated;
+    }
+
+    @Override
+    public boolean isDelegate() {
+        return false;
+    }
+
+    @Override
+    public boolean isTransient() {
+        return Modifier.isTransient(field.getModifiers());
+    }
+
+    private static class StubAnnotatedField implements AnnotatedField<Object> {
+
+        private final Field field;
+
+        private StubAnnotatedField(final Field field) {
+            this.field = field;
+        }
+
+        @Override
+        public Field getJavaMember() {
+            return field;
+        }
+
+        @Override
+        public boolean isStatic() {
+            return Modifier.isStatic(field.getModifiers());
+        }
+
+        @Override
+        public AnnotatedType<Object> getDeclaringType() {
+            return null;
+        }
+
+        @Override
+        public Type getBaseType() {
+            return field.getGenericType();
+        }
+
+        @Override
+        public Set<Type> getTypeClosure() {
+            return Collections.singleton(getBaseType());
+        }
+
+        @Override
+        public <T extends Annotation> T getAnnotation(final Class<T> annotationType) {
+            return field.getAnnotation(annotationType);
+        }
+
+        @Override
+        public Set<Annotation> getAnnotations() {
+            return new HashSet<Annotation>(Arrays.asList(field.getAnnotations()));
+        }
+
+        @Override
+        public boolean isAnnotationPresent(final Class<? extends Annotation> annotationType) {
+            return field.isAnnotationPresent(annotationType);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.tomitribe.sabot.maven;
+
+import org.apache.maven.artifact.DependencyResolutionRequiredException;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.apache.maven.project.MavenProject;
+import org.tomitribe.sabot.Snapshots;
+
+import javax.resource.ResourceException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes a precompiled snapshot of the default environment, and of each listed environment,
+ * into the project's classes so the ConfigurationResolver can skip parsing and interpolation at startup.
+ *
+ * <pre>
+ * &lt;environments&gt;
+ *   &lt;environment&gt;prod&lt;/environment&gt;
+ *   &lt;environment&gt;prod,dev&lt;/environment&gt;
+ * &lt;/environments&gt;
+ * </pre>
+ *
+ * Only the runtime classpath is used, test.properties is not part of a snapshot.
+ */
+@Mojo(name = "snapshot", defaultPhase = LifecyclePhase.PROCESS_CLASSES,
+        requiresDependencyResolution = ResolutionScope.RUNTIME, threadSafe = true)
+public class SnapshotMojo extends AbstractMojo {
+
+    @Parameter(defaultValue = "${project}", readonly = true, required = true)
+    private MavenProject project;
+
+    /**
+     * Values of 'org.tomitribe.sabot.environment' to build a snapshot for
+     */
+    @Parameter
+    private List<String> environments = new ArrayList<String>();
+
+    @Parameter(defaultValue = "${project.build.outputDirectory}", required = true)
+    private File outputDirectory;
+
+    @Parameter(property = "sabot.snapshot.skip", defaultValue = "false")
+    private boolean skip;
+
+    @Override
+    public void execute() throws MojoExecutionException {
+        if (skip) {
+            getLog().info("Skipping configuration snapshots");
+            return;
+        }
+
+        final List<String> names = new ArrayList<String>();
+        names.add(null);
+        names.addAll(environments);
+
+        final Thread thread = Thread.currentThread();
+        final ClassLoader previous = thread.getContextClassLoader();
+        final URLClassLoader loader = new URLClassLoader(getClasspath(), null);
+        thread.setContextClassLoader(loader);
+        try {
+            for (final String environment : names) {
+                write(environment);
+            }
+        } finally {
+            thread.setContextClassLoader(previous);
+            close(loader);
+        }
+    }
+
+    private void write(final String environment) throws MojoExecutionException {
+        final File file = new File(outputDirectory, Snapshots.getResourceName(environment));
+
+        if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs()) {
+            throw new MojoExecutionException("Unable to create " + file.getParentFile());
+        }
+
+        try {
+            final OutputStream out = new FileOutputStream(file);
+            try {
+                Snapshots.write(environment, out);
+            } finally {
+                out.close();
+            }
+        } catch (final ResourceException e) {
+            throw new MojoExecutionException("Failed to load environment: " + environment, e);
+        } catch (final IOException e) {
+            throw new MojoExecutionException("Unable to write " + file, e);
+        }
+
+        getLog().info("Configuration snapshot " + file);
+    }
+
+    /**
+     * Releases the jars of the project, the plugin stays loaded for the rest of the build
+     */
+    private void close(final URLClassLoader loader) {
+        try {
+            loader.close();
+        } catch (final IOException e) {
+            getLog().warn("Unable to close the project class loader", e);
+        }
+    }
+
+    private URL[] getClasspath() throws MojoExecutionException {
+        try {
+            final List<String> elements = project.getRuntimeClasspathElements();
+
+            final URL[] urls = new URL[elements.size()];
+            for (int i = 0; i < urls.length; i++) {
+                urls[i] = new File(elements.get(i)).toURI().toURL();
+            }
+            return urls;
+
+        } catch (final DependencyResolutionRequiredException e) {
+            throw new MojoExecutionException("Unable to resolve the runtime classpath", e);
+        } catch (final MalformedURLException e) {
+            throw new MojoExecutionException("Invalid runtime classpath", e);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.tomitribe.sabot.maven;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.project.MavenProject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.tomitribe.sabot.Snapshots;
+import org.tomitribe.util.Files;
+import org.tomitribe.util.IO;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SnapshotMojoTest {
+
+    private File classes;
+    private File output;
+
+    @Before
+    public void setUp() throws Exception {
+        classes = Files.tmpdir();
+        output = Files.tmpdir();
+        IO.writeString(new File(classes, "base.properties"), "remote.port = 1443\nremote.url = https://localhost:${remote.port}\n");
+        IO.writeString(new File(classes, "dev.properties"), "remote.port = 2443\n");
+    }
+
+    @After
+    public void tearDown() {
+        Files.remove(classes);
+        Files.remove(output);
+    }
+
+    @Test
+    public void snapshot() throws Exception {
+        final ClassLoader loader = Thread.currentThread().getContextClassLoader();
+
+        mojo(Arrays.asList("dev"), false).execute();
+
+        assertSnapshot(new File(output, Snapshots.getResourceName(null)));
+        assertSnapshot(new File(output, Snapshots.getResourceName("dev")));
+
+        // The project's classpath is only used while the mojo runs
+        assertSame(loader, Thread.currentThread().getContextClassLoader());
+    }
+
+    @Test
+    public void missingEnvironment() throws Exception {
+        try {
+            mojo(Arrays.asList("prod"), false).execute();
+            fail("there is no prod.properties");
+        } catch (final MojoExecutionException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("prod"));
+        }
+    }
+
+    @Test
+    public void skip() throws Exception {
+        mojo(Arrays.asList("dev"), true).execute();
+
+        assertFalse(new File(output, Snapshots.getResourceName(null)).exists());
+    }
+
+    private SnapshotMojo mojo(final List<String> environments, final boolean skip) throws Exception {
+        final SnapshotMojo mojo = new SnapshotMojo();
+        set(mojo, "project", new MavenProject() {
+            @Override
+            public List<String> getRuntimeClasspathElements() {
+                return Collections.singletonList(classes.getAbsolutePath());
+            }
+        });
+        set(mojo, "environments", environments);
+        set(mojo, "outputDirectory", output);
+        set(mojo, "skip", skip);
+        return mojo;
+    }
+
+    private static void set(final Object target, final String name, final Object value) throws Exception {
+        final Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+
+    private static void assertSnapshot(final File file) throws Exception {
+        assertTrue(file + " was not written", file.isFile());
+
+        final DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            assertEquals(0x5341424F, in.readInt());
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,494 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.tomitribe.sabot.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Indexes every @Config injection point at compile time.
+ *
+ * Writes 'META-INF/sabot/config.index', the configuration the application needs, for tools
+ * and reviews. Each injection point has three entries, its key, default and target type:
+ *
+ * <pre>
+ * com.example.Service#timeout.key = service.timeout
+ * com.example.Service#timeout.default = 30 seconds
+ * com.example.Service#timeout.type = org.tomitribe.util.Duration
+ * com.example.Service#&lt;init&gt;(java.lang.String,int)[1].key = service.retries
+ * </pre>
+ *
+ * Conversions Sabot can check without running the application are checked here: defaults of
+ * primitives, their wrappers and enums must be valid values of the type. The String constructor,
+ * or the static factory methods, of the other target types, JDK types included, are listed in
+ * 'META-INF/native-image/sabot/config/reflect-config.json' so a native image keeps them.
+ */
+@SupportedAnnotationTypes(ConfigIndexProcessor.CONFIG)
+public class ConfigIndexProcessor extends AbstractProcessor {
+
+    static final String CONFIG = "org.tomitribe.sabot.Config";
+    static final String CONFIG_VALUE = "org.tomitribe.sabot.ConfigValue";
+    static final String INDEX = "META-INF/sabot/config.index";
+    static final String REFLECTION = "META-INF/native-image/sabot/config/reflect-config.json";
+
+    /**
+     * Converted by Sabot without reflection
+     */
+    private static final Set<String> BUILT_IN = new HashSet<String>(Arrays.asList(
+            "java.lang.String", "java.lang.Boolean", "java.lang.Byte", "java.lang.Short",
+            "java.lang.Integer", "java.lang.Long", "java.lang.Float", "java.lang.Double"));
+
+    /**
+     * Sorted so the same sources always produce the same files
+     */
+    private final Map<String, String> index = new TreeMap<String, String>();
+    private final Map<String, Set<String>> reflective = new TreeMap<String, Set<String>>();
+
+    /**
+     * Binary names of the classes compiled, an incremental build only compiles those that changed
+     */
+    private final Set<String> compiled = new HashSet<String>();
+
+    /**
+     * A type of the native image configuration, as written by {@link #write()}
+     */
+    private static final Pattern REFLECTED = Pattern.compile("\\{\"name\": \"([^\"]+)\", \"methods\": \\[(.*)\\]\\}");
+    private static final Pattern METHOD = Pattern.compile("\\{\"name\": \"([^\"]+)\"");
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment round) {
+        if (round.processingOver()) {
+            write();
+            return false;
+        }
+
+        final TypeElement config = processingEnv.getElementUtils().getTypeElement(CONFIG);
+        if (null == config) {
+            return false;
+        }
+
+        for (final Element root : round.getRootElements()) {
+            if (root instanceof TypeElement) {
+                compiled.add(binaryName(root.asType()));
+            }
+        }
+
+        for (final Element element : round.getElementsAnnotatedWith(config)) {
+            final String site = site(element);
+
+            // Methods annotated with @Config are producers, not injection points
+            if (null != site) {
+                index(site, element, mirror(element, config));
+            }
+        }
+
+        // Other processors may handle @Config too
+        return false;
+    }
+
+    private void index(final String site, final Element element, final AnnotationMirror annotation) {
+        final String key = value(annotation, "value");
+        final String defaultValue = value(annotation, "defaultValue");
+
+        if (key.isEmpty()) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, "@Config without a key", element, annotation);
+        }
+
+        TypeMirror type = element.asType();
+        if (isConfigValue(type)) {
+            // ConfigValue<T> holds a T, a raw ConfigValue a String
+            final List<? extends TypeMirror> arguments = ((DeclaredType) type).getTypeArguments();
+            type = arguments.isEmpty() ? processingEnv.getElementUtils().getTypeElement("java.lang.String").asType() : arguments.get(0);
+        }
+
+        final String error = check(type, defaultValue);
+        if (null != error) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, error, element, annotation);
+            return;
+        }
+
+        index.put(site + ".key", key);
+        index.put(site + ".default", defaultValue);
+        index.put(site + ".type", typeName(type));
+    }
+
+    /**
+     * @return An error message if the default is not a valid value of the type, null otherwise
+     */
+    private String check(final TypeMirror type, final String defaultValue) {
+        // Interpolated at runtime
+        final boolean checkDefault = !defaultValue.isEmpty() && !defaultValue.contains("${");
+
+        final String name = type.getKind().isPrimitive() ? type.getKind().name().toLowerCase(Locale.ENGLISH) : binaryName(type);
+
+        try {
+            if (checkDefault && ("boolean".equals(name) || "java.lang.Boolean".equals(name))) {
+                if (!"true".equalsIgnoreCase(defaultValue) && !"false".equalsIgnoreCase(defaultValue)) {
+                    throw new IllegalArgumentException(defaultValue);
+                }
+            } else if (checkDefault && ("byte".equals(name) || "java.lang.Byte".equals(name))) {
+                Byte.decode(defaultValue);
+            } else if (checkDefault && ("short".equals(name) || "java.lang.Short".equals(name))) {
+                Short.decode(defaultValue);
+            } else if (checkDefault && ("int".equals(name) || "java.lang.Integer".equals(name))) {
+                Integer.decode(defaultValue);
+            } else if (checkDefault && ("long".equals(name) || "java.lang.Long".equals(name))) {
+                Long.decode(defaultValue);
+            } else if (checkDefault && ("float".equals(name) || "java.lang.Float".equals(name))) {
+                Float.valueOf(defaultValue);
+            } else if (checkDefault && ("double".equals(name) || "java.lang.Double".equals(name))) {
+                Double.valueOf(defaultValue);
+            }
+        } catch (final IllegalArgumentException e) {
+            return String.format("Default value '%s' is not a valid %s", defaultValue, name);
+        }
+
+        if (type.getKind() != TypeKind.DECLARED) {
+            return null;
+        }
+
+        final TypeElement element = (TypeElement) ((DeclaredType) type).asElement();
+
+        if (element.getKind() == ElementKind.ENUM) {
+            if (checkDefault && !isConstant(element, defaultValue)) {
+                return String.format("Default value '%s' is not a constant of %s", defaultValue, name);
+            }
+        } else if (!BUILT_IN.contains(name)) {
+            final Set<String> methods = conversionMethods(element);
+            if (!methods.isEmpty()) {
+                reflective.put(name, methods);
+            }
+        }
+
+        return null;
+    }
+
+    private static boolean isConstant(final TypeElement element, final String value) {
+        // As converted at runtime: as is, upper case or lower case
+        for (final Element enclosed : element.getEnclosedElements()) {
+            if (enclosed.getKind() == ElementKind.ENUM_CONSTANT) {
+                final String constant = enclosed.getSimpleName().toString();
+                if (constant.equals(value) || constant.equals(value.toUpperCase()) || constant.equals(value.toLowerCase())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The String constructor, or failing that the static methods taking a String and returning the type
+     */
+    private Set<String> conversionMethods(final TypeElement element) {
+        final Set<String> methods = new TreeSet<String>();
+
+        if (!element.getModifiers().contains(Modifier.ABSTRACT)) {
+            for (final ExecutableElement constructor : ElementFilter.constructorsIn(element.getEnclosedElements())) {
+                if (constructor.getModifiers().contains(Modifier.PUBLIC) && takesString(constructor)) {
+                    methods.add("<init>");
+                    return methods;
+                }
+            }
+        }
+
+        final TypeMirror type = processingEnv.getTypeUtils().erasure(element.asType());
+        for (final ExecutableElement method : ElementFilter.methodsIn(element.getEnclosedElements())) {
+            if (method.getModifiers().contains(Modifier.PUBLIC)
+                    && method.getModifiers().contains(Modifier.STATIC)
+                    && takesString(method)
+                    && processingEnv.getTypeUtils().isSameType(type, processingEnv.getTypeUtils().erasure(method.getReturnType()))) {
+                methods.add(method.getSimpleName().toString());
+            }
+        }
+        return methods;
+    }
+
+    private static boolean takesString(final ExecutableElement executable) {
+        return executable.getParameters().size() == 1
+                && "java.lang.String".equals(executable.getParameters().get(0).asType().toString());
+    }
+
+    private boolean isConfigValue(final TypeMirror type) {
+        return type.getKind() == TypeKind.DECLARED
+                && CONFIG_VALUE.equals(((TypeElement) ((DeclaredType) type).asElement()).getQualifiedName().toString());
+    }
+
+    /**
+     * @return The injection point as 'Owner#field' or 'Owner#method(parameter types)[position]', null for other elements
+     */
+    private String site(final Element element) {
+        if (element.getKind() == ElementKind.FIELD) {
+            return binaryName(element.getEnclosingElement().asType()) + "#" + element.getSimpleName();
+        }
+
+        if (element.getKind() != ElementKind.PARAMETER) {
+            return null;
+        }
+
+        final ExecutableElement executable = (ExecutableElement) element.getEnclosingElement();
+        final StringBuilder site = new StringBuilder(binaryName(executable.getEnclosingElement().asType()))
+                .append('#').append(executable.getSimpleName()).append('(');
+
+        int position = -1;
+        final List<? extends VariableElement> parameters = executable.getParameters();
+        for (int i = 0; i < parameters.size(); i++) {
+            if (i > 0) {
+                site.append(',');
+            }
+            site.append(typeName(parameters.get(i).asType()));
+
+            if (parameters.get(i).equals(element)) {
+                position = i;
+            }
+        }
+
+        return site.append(")[").append(position).append(']').toString();
+    }
+
+    /**
+     * @return The erased type as Class.getName() would name it, arrays as 'component[]'
+     */
+    private String typeName(final TypeMirror type) {
+        if (type.getKind() == TypeKind.ARRAY) {
+            return typeName(((ArrayType) type).getComponentType()) + "[]";
+        }
+        if (type.getKind().isPrimitive()) {
+            return type.getKind().name().toLowerCase(Locale.ENGLISH);
+        }
+        return binaryName(type);
+    }
+
+    private String binaryName(final TypeMirror type) {
+        final TypeMirror erased = processingEnv.getTypeUtils().erasure(type);
+        if (erased.getKind() == TypeKind.DECLARED) {
+            return processingEnv.getElementUtils().getBinaryName((TypeElement) ((DeclaredType) erased).asElement()).toString();
+        }
+        return erased.toString();
+    }
+
+    private static AnnotationMirror mirror(final Element element, final TypeElement annotation) {
+        for (final AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            if (mirror.getAnnotationType().asElement().equals(annotation)) {
+                return mirror;
+            }
+        }
+        throw new IllegalStateException("No @Config on " + element);
+    }
+
+    private String value(final AnnotationMirror annotation, final String name) {
+        for (final Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+                : processingEnv.getElementUtils().getElementValuesWithDefaults(annotation).entrySet()) {
+            if (entry.getKey().getSimpleName().contentEquals(name)) {
+                return String.valueOf(entry.getValue().getValue());
+            }
+        }
+        return "";
+    }
+
+    private void write() {
+        try {
+            merge();
+
+            if (index.isEmpty()) {
+                return;
+            }
+
+            final Writer writer = create(INDEX);
+            try {
+                writer.write("# Generated by the Sabot annotation processor\n");
+                for (final Map.Entry<String, String> entry : index.entrySet()) {
+                    writer.write(escape(entry.getKey(), true));
+                    writer.write(" = ");
+                    writer.write(escape(entry.getValue(), false));
+                    writer.write('\n');
+                }
+            } finally {
+                writer.close();
+            }
+
+            if (reflective.isEmpty()) {
+                return;
+            }
+
+            final Writer reflection = create(REFLECTION);
+            try {
+                reflection.write("[\n");
+                int i = 0;
+                for (final Map.Entry<String, Set<String>> type : reflective.entrySet()) {
+                    reflection.write("  {\"name\": \"" + type.getKey() + "\", \"methods\": [");
+                    int j = 0;
+                    for (final String method : type.getValue()) {
+                        reflection.write((j++ > 0 ? ", " : "") + "{\"name\": \"" + method + "\", \"parameterTypes\": [\"java.lang.String\"]}");
+                    }
+                    reflection.write(++i < reflective.size() ? "]},\n" : "]}\n");
+                }
+                reflection.write("]\n");
+            } finally {
+                reflection.close();
+            }
+        } catch (final IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Unable to write the @Config index: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Keeps the entries of the previous build for the classes not compiled this time.
+     * The files are written once per build, an incremental build would otherwise drop the classes left as they were.
+     */
+    private void merge() throws IOException {
+        final String previous = read(INDEX);
+        if (null != previous) {
+            final Properties entries = new Properties();
+            entries.load(new StringReader(previous));
+
+            for (final String name : entries.stringPropertyNames()) {
+                final int owner = name.indexOf('#');
+                if (owner > 0 && !isCompiled(name.substring(0, owner)) && !index.containsKey(name)) {
+                    index.put(name, entries.getProperty(name));
+                }
+            }
+        }
+
+        final String reflection = read(REFLECTION);
+        if (null != reflection) {
+            final Matcher type = REFLECTED.matcher(reflection);
+            while (type.find()) {
+                if (!reflective.containsKey(type.group(1))) {
+                    final Set<String> methods = new TreeSet<String>();
+                    final Matcher method = METHOD.matcher(type.group(2));
+                    while (method.find()) {
+                        methods.add(method.group(1));
+                    }
+                    reflective.put(type.group(1), methods);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if the class, or the class it is nested in, was compiled
+     */
+    private boolean isCompiled(final String owner) {
+        for (int nested = owner.length(); nested > 0; nested = owner.lastIndexOf('$', nested - 1)) {
+            if (compiled.contains(owner.substring(0, nested))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The file as written by the previous build, null if there is none
+     */
+    private String read(final String name) {
+        try {
+            return processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", name).getCharContent(true).toString();
+        } catch (final IOException e) {
+            return null;
+        } catch (final IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private Writer create(final String name) throws IOException {
+        final FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", name);
+        return file.openWriter();
+    }
+
+    /**
+     * Escapes as Properties.store does, ISO-8859-1 with unicode escapes
+     */
+    static String escape(final String string, final boolean key) {
+        final StringBuilder escaped = new StringBuilder(string.length());
+        for (int i = 0; i < string.length(); i++) {
+            final char c = string.charAt(i);
+            switch (c) {
+                case '\\':
+                    escaped.append("\\\\");
+                    break;
+                case '\t':
+                    escaped.append("\\t");
+                    break;
+                case '\n':
+                    escaped.append("\\n");
+                    break;
+                case '\r':
+                    escaped.append("\\r");
+                    break;
+                case '\f':
+                    escaped.append("\\f");
+                    break;
+                case '=':
+                case ':':
+                case '#':
+                case '!':
+                    escaped.append('\\').append(c);
+                    break;
+                case ' ':
+                    if (key || i == 0) {
+                        escaped.append('\\');
+                    }
+                    escaped.append(c);
+                    break;
+                default:
+                    if (c < 0x20 || c > 0x7e) {
+                        escaped.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        escaped.append(c);
+                    }
+            }
+        }
+        return escaped.toString();
+    }
+}
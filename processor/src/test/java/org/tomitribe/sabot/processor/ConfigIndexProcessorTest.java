@@ -0,0 +1,256 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.tomitribe.sabot.processor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConfigIndexProcessorTest {
+
+    private File output;
+
+    @Before
+    public void setUp() throws IOException {
+        output = File.createTempFile("sabot-processor", "");
+        assertTrue(output.delete() && output.mkdirs());
+    }
+
+    @After
+    public void tearDown() {
+        delete(output);
+    }
+
+    @Test
+    public void index() throws Exception {
+        final List<Diagnostic<? extends JavaFileObject>> errors = compile(source("com.example.Service",
+                "package com.example;",
+                "import org.tomitribe.sabot.Config;",
+                "import org.tomitribe.sabot.ConfigValue;",
+                "import javax.inject.Inject;",
+                "public class Service {",
+                "    public enum Mode { FAST, SAFE }",
+                "    public static class Money { public Money(String value) {} }",
+                "    @Inject @Config(value = \"service.url\") private java.net.URI url;",
+                "    @Inject @Config(value = \"service.pattern\", defaultValue = \".*\") private java.util.regex.Pattern pattern;",
+                "    @Inject @Config(value = \"service.mode\", defaultValue = \"fast\") private Mode mode;",
+                "    @Inject @Config(value = \"service.timeout\", defaultValue = \"30\") private ConfigValue<Integer> timeout;",
+                "    @Inject @Config(value = \"service.price\", defaultValue = \"a = b\") private Money price;",
+                "    @Inject public Service(@Config(value = \"service.name\") String name, @Config(value = \"service.retries\", defaultValue = \"0x3\") int retries) {}",
+                "}"));
+
+        assertTrue(errors.toString(), errors.isEmpty());
+
+        final Properties index = load(new File(output, ConfigIndexProcessor.INDEX));
+        assertEquals(21, index.size());
+
+        assertEquals("service.url", index.getProperty("com.example.Service#url.key"));
+        assertEquals("", index.getProperty("com.example.Service#url.default"));
+        assertEquals("java.net.URI", index.getProperty("com.example.Service#url.type"));
+
+        assertEquals("com.example.Service$Mode", index.getProperty("com.example.Service#mode.type"));
+        assertEquals("java.lang.Integer", index.getProperty("com.example.Service#timeout.type"));
+        assertEquals("a = b", index.getProperty("com.example.Service#price.default"));
+
+        assertEquals("service.retries", index.getProperty("com.example.Service#<init>(java.lang.String,int)[1].key"));
+        assertEquals("0x3", index.getProperty("com.example.Service#<init>(java.lang.String,int)[1].default"));
+        assertEquals("int", index.getProperty("com.example.Service#<init>(java.lang.String,int)[1].type"));
+
+        // The String constructors used by the conversions are kept in a native image
+        final String reflection = read(new File(output, ConfigIndexProcessor.REFLECTION));
+        assertTrue(reflection, reflection.contains("\"name\": \"com.example.Service$Money\""));
+        assertTrue(reflection, reflection.contains("\"name\": \"java.net.URI\", \"methods\": [{\"name\": \"<init>\""));
+        assertTrue(reflection, reflection.contains("\"name\": \"java.util.regex.Pattern\", \"methods\": [{\"name\": \"compile\""));
+        assertFalse(reflection, reflection.contains("java.lang.Integer"));
+        assertFalse(reflection, reflection.contains("java.lang.String\", \"methods"));
+    }
+
+    @Test
+    public void invalidDefaults() throws Exception {
+        final List<Diagnostic<? extends JavaFileObject>> errors = compile(source("com.example.Invalid",
+                "package com.example;",
+                "import org.tomitribe.sabot.Config;",
+                "import javax.inject.Inject;",
+                "public class Invalid {",
+                "    public enum Mode { FAST, SAFE }",
+                "    @Inject @Config(value = \"service.port\", defaultValue = \"http\") private int port;",
+                "    @Inject @Config(value = \"service.enabled\", defaultValue = \"yes\") private Boolean enabled;",
+                "    @Inject @Config(value = \"service.mode\", defaultValue = \"slow\") private Mode mode;",
+                "    @Inject @Config(value = \"service.home\", defaultValue = \"${user.home}\") private long home;",
+                "}"));
+
+        final List<String> messages = new ArrayList<String>();
+        for (final Diagnostic<? extends JavaFileObject> error : errors) {
+            messages.add(error.getMessage(null));
+        }
+
+        assertEquals(Arrays.asList(
+                "Default value 'http' is not a valid int",
+                "Default value 'yes' is not a valid java.lang.Boolean",
+                "Default value 'slow' is not a constant of com.example.Invalid$Mode"), messages);
+    }
+
+    @Test
+    public void incremental() throws Exception {
+        assertTrue(compile(source("com.example.Client",
+                "package com.example;",
+                "import org.tomitribe.sabot.Config;",
+                "import javax.inject.Inject;",
+                "public class Client {",
+                "    @Inject @Config(value = \"client.url\") private java.net.URI url;",
+                "}")).isEmpty());
+        assertTrue(compile(source("com.example.Server",
+                "package com.example;",
+                "import org.tomitribe.sabot.Config;",
+                "import javax.inject.Inject;",
+                "public class Server {",
+                "    @Inject @Config(value = \"server.port\") private int port;",
+                "    @Inject @Config(value = \"server.pattern\") private java.util.regex.Pattern pattern;",
+                "}")).isEmpty());
+
+        // Client was compiled by the previous build, its entries are kept
+        Properties index = load(new File(output, ConfigIndexProcessor.INDEX));
+        assertEquals("client.url", index.getProperty("com.example.Client#url.key"));
+        assertEquals("server.port", index.getProperty("com.example.Server#port.key"));
+
+        String reflection = read(new File(output, ConfigIndexProcessor.REFLECTION));
+        assertTrue(reflection, reflection.contains("\"name\": \"java.net.URI\", \"methods\": [{\"name\": \"<init>\""));
+        assertTrue(reflection, reflection.contains("\"name\": \"java.util.regex.Pattern\""));
+
+        // Compiled again, the entries of Server are replaced by its current injection points
+        assertTrue(compile(source("com.example.Server",
+                "package com.example;",
+                "import org.tomitribe.sabot.Config;",
+                "import javax.inject.Inject;",
+                "public class Server {",
+                "    @Inject @Config(value = \"server.host\") private String host;",
+                "}")).isEmpty());
+
+        index = load(new File(output, ConfigIndexProcessor.INDEX));
+        assertEquals(6, index.size());
+        assertEquals("client.url", index.getProperty("com.example.Client#url.key"));
+        assertEquals("server.host", index.getProperty("com.example.Server#host.key"));
+        assertFalse(index.containsKey("com.example.Server#port.key"));
+
+        reflection = read(new File(output, ConfigIndexProcessor.REFLECTION));
+        assertTrue(reflection, reflection.contains("\"name\": \"java.net.URI\", \"methods\": [{\"name\": \"<init>\""));
+    }
+
+    @Test
+    public void escape() {
+        assertEquals("a\\=b\\:c\\ d", ConfigIndexProcessor.escape("a=b:c d", true));
+        assertEquals("\\ a b\\\\\\n\\u00e9", ConfigIndexProcessor.escape(" a b\\\né", false));
+    }
+
+    private List<Diagnostic<? extends JavaFileObject>> compile(final JavaFileObject source) throws IOException {
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+
+        final StandardJavaFileManager files = compiler.getStandardFileManager(diagnostics, null, null);
+        try {
+            final List<String> options = Arrays.asList(
+                    "-classpath", System.getProperty("java.class.path"),
+                    "-d", output.getAbsolutePath(),
+                    "-proc:only");
+
+            final JavaCompiler.CompilationTask task = compiler.getTask(null, files, diagnostics, options, null, Collections.singletonList(source));
+            task.setProcessors(Collections.singletonList(new ConfigIndexProcessor()));
+            task.call();
+        } finally {
+            files.close();
+        }
+
+        final List<Diagnostic<? extends JavaFileObject>> errors = new ArrayList<Diagnostic<? extends JavaFileObject>>();
+        for (final Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                errors.add(diagnostic);
+            }
+        }
+        return errors;
+    }
+
+    private static JavaFileObject source(final String name, final String... lines) {
+        final StringBuilder code = new StringBuilder();
+        for (final String line : lines) {
+            code.append(line).append('\n');
+        }
+
+        return new SimpleJavaFileObject(URI.create("string:///" + name.replace('.', '/') + ".java"), JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(final boolean ignoreEncodingErrors) {
+                return code;
+            }
+        };
+    }
+
+    private static Properties load(final File file) throws IOException {
+        final Properties properties = new Properties();
+        final InputStream in = new FileInputStream(file);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        return properties;
+    }
+
+    private static String read(final File file) throws IOException {
+        final InputStream in = new FileInputStream(file);
+        try {
+            final byte[] bytes = new byte[(int) file.length()];
+            int read = 0;
+            while (read < bytes.length) {
+                read += in.read(bytes, read, bytes.length - read);
+            }
+            return new String(bytes, "UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void delete(final File file) {
+        final File[] children = file.listFiles();
+        if (null != children) {
+            for (final File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
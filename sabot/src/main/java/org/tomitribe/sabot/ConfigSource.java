@@ -0,0 +1,61 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.tomitribe.sabot;
+
+import java.util.Map;
+
+/**
+ * A source of configuration other than the properties files, a remote configuration service for example.
+ *
+ * Sources are discovered with the ServiceLoader of the application's class loader, list implementations in
+ * 'META-INF/services/org.tomitribe.sabot.ConfigSource'. They are layered above the properties files in ascending
+ * ordinal, so the source with the highest ordinal wins, and below the configuration observers.
+ * Their values may reference other keys, they are interpolated with the rest of the configuration.
+ *
+ * Sources are fetched in parallel, each for at most {@link ConfigurationResolver#SOURCE_TIMEOUT} milliseconds,
+ * and the result is reused for {@link ConfigurationResolver#SOURCE_TTL} milliseconds.
+ * Lookups never call a source, they read the configuration loaded with it.
+ */
+public interface ConfigSource {
+
+    /**
+     * @return Name of the source, shown in the audit and in the logs
+     */
+    String getName();
+
+    /**
+     * @return Sources with a higher ordinal override the keys of sources with a lower ordinal
+     */
+    int getOrdinal();
+
+    /**
+     * Called on a background thread every time the source's cached values have expired and the configuration loads.
+     *
+     * @return Every key of the source, or null if the source can not list its keys, {@link #get(String)} is then used
+     * @throws Exception if the source is unavailable, its last values are then kept
+     */
+    Map<String, String> loadAll() throws Exception;
+
+    /**
+     * Only called when {@link #loadAll()} returned null, for each key of the properties files.
+     *
+     * @param key Configuration key
+     * @return The value of the key or null if the source does not define it
+     * @throws Exception if the source is unavailable, its last values are then kept
+     */
+    String get(final String key) throws Exception;
+}
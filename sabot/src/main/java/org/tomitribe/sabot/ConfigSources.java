@@ -0,0 +1,308 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.tomitribe.sabot;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The ConfigSources of an application, in ascending ordinal, each behind a cache.
+ *
+ * Expired sources are fetched in parallel on the observer threads. Each is waited for until its own timeout,
+ * measured from the start of its fetch, so a slow source delays the load by the timeout at most.
+ * A source that times out or fails contributes its last values, nothing if it never answered.
+ * A fetch that timed out keeps running, when it completes the application is told so it can load again.
+ * The values of a source are timestamped when its fetch completes.
+ */
+final class ConfigSources {
+
+    private static final Logger LOGGER = Logger.getLogger(ConfigSources.class.getName());
+
+    private static final Runnable NOTHING = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+    private final List<Cached> sources;
+    private final long timeout;
+    private final long ttl;
+    private final Runnable late;
+    private volatile boolean closed;
+
+    /**
+     * @param sources The sources, in any order
+     * @param timeout Milliseconds to wait for each source
+     * @param ttl Milliseconds the values of a source are reused before it is fetched again
+     */
+    ConfigSources(final Collection<? extends ConfigSource> sources, final long timeout, final long ttl) {
+        this(sources, timeout, ttl, NOTHING);
+    }
+
+    /**
+     * @param sources The sources, in any order
+     * @param timeout Milliseconds to wait for each source
+     * @param ttl Milliseconds the values of a source are reused before it is fetched again
+     * @param late Run on the observer thread when a fetch completes after its load gave up on it
+     */
+    ConfigSources(final Collection<? extends ConfigSource> sources, final long timeout, final long ttl, final Runnable late) {
+        final List<ConfigSource> sorted = new ArrayList<ConfigSource>(sources);
+
+        // Stable, sources of the same ordinal stay in discovery order
+        Collections.sort(sorted, new Comparator<ConfigSource>() {
+            @Override
+            public int compare(final ConfigSource a, final ConfigSource b) {
+                return a.getOrdinal() < b.getOrdinal() ? -1 : a.getOrdinal() == b.getOrdinal() ? 0 : 1;
+            }
+        });
+
+        this.sources = new ArrayList<Cached>(sorted.size());
+        for (final ConfigSource source : sorted) {
+            this.sources.add(new Cached(source));
+        }
+        this.timeout = TimeUnit.MILLISECONDS.toNanos(timeout);
+        this.ttl = TimeUnit.MILLISECONDS.toNanos(ttl);
+        this.late = late;
+    }
+
+    /**
+     * Discovers the sources listed in 'META-INF/services/org.tomitribe.sabot.ConfigSource'
+     *
+     * @param loader Class loader of the application
+     * @param timeout Milliseconds to wait for each source
+     * @param ttl Milliseconds the values of a source are reused before it is fetched again
+     * @param late Run when a fetch completes after its load gave up on it
+     */
+    static ConfigSources load(final ClassLoader loader, final long timeout, final long ttl, final Runnable late) {
+        final List<ConfigSource> found = new ArrayList<ConfigSource>();
+
+        final Iterator<ConfigSource> iterator = ServiceLoader.load(ConfigSource.class, loader).iterator();
+        while (true) {
+            try {
+                if (!iterator.hasNext()) {
+                    break;
+                }
+            } catch (final ServiceConfigurationError e) {
+                LOGGER.log(Level.WARNING, "Unable to list the ConfigSources", e);
+                break;
+            }
+
+            try {
+                found.add(iterator.next());
+            } catch (final ServiceConfigurationError e) {
+                LOGGER.log(Level.WARNING, "Ignoring ConfigSource", e);
+            }
+        }
+
+        return new ConfigSources(found, timeout, ttl, late);
+    }
+
+    boolean isEmpty() {
+        return this.sources.isEmpty();
+    }
+
+    /**
+     * Cancels the pending fetches, a fetch that completes afterwards no longer runs the late task
+     * and a load with these sources uses the values they already have
+     */
+    void close() {
+        this.closed = true;
+        for (final Cached cached : this.sources) {
+            cached.cancel();
+        }
+    }
+
+    /**
+     * @param merged Layers of the properties files
+     * @return The layers followed by one layer per source, named after the source
+     */
+    LayeredProperties layer(final LayeredProperties merged) {
+        if (this.sources.isEmpty()) {
+            return merged;
+        }
+
+        final long start = System.nanoTime();
+
+        // Start every expired source before waiting for any
+        for (final Cached cached : this.sources) {
+            cached.refresh(start, merged.keySet());
+        }
+
+        final List<String> names = new ArrayList<String>(this.sources.size());
+        final List<Properties> layers = new ArrayList<Properties>(this.sources.size());
+        for (final Cached cached : this.sources) {
+            names.add(cached.source.getName());
+            layers.add(cached.await());
+        }
+
+        return merged.plus(names, layers);
+    }
+
+    private final class Cached {
+
+        private final ConfigSource source;
+        private Properties values;
+        private long fetched;
+        private Future<?> pending;
+        private long started;
+
+        /**
+         * A load gave up waiting for the pending fetch
+         */
+        private boolean abandoned;
+
+        private Cached(final ConfigSource source) {
+            this.source = source;
+        }
+
+        private synchronized void refresh(final long now, final Collection<String> keys) {
+            if (closed || null != this.pending || null != this.values && now - this.fetched < ttl) {
+                return;
+            }
+
+            // Completing takes the lock, pending is set before the fetch can clear it
+            final List<String> copy = new ArrayList<String>(keys);
+            this.started = now;
+            this.pending = ConfigurationObservers.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    final Properties properties;
+                    try {
+                        properties = fetch(copy);
+                    } catch (final Exception e) {
+                        failed(e);
+                        return null;
+                    } catch (final Error e) {
+                        failed(e);
+                        throw e;
+                    }
+
+                    if (completed(properties) && !closed) {
+                        LOGGER.info("ConfigSource " + source.getName() + " answered late, loading the configuration again");
+                        late.run();
+                    }
+                    return null;
+                }
+            });
+        }
+
+        private Properties fetch(final List<String> keys) throws Exception {
+            final Properties properties = new Properties();
+
+            final Map<String, String> all = this.source.loadAll();
+            if (null != all) {
+                for (final Map.Entry<String, String> entry : all.entrySet()) {
+                    if (null != entry.getKey() && null != entry.getValue()) {
+                        properties.put(entry.getKey(), entry.getValue());
+                    }
+                }
+                return properties;
+            }
+
+            for (final String key : keys) {
+                final String value = this.source.get(key);
+                if (null != value) {
+                    properties.put(key, value);
+                }
+            }
+            return properties;
+        }
+
+        /**
+         * @return true if a load gave up waiting for these values
+         */
+        private synchronized boolean completed(final Properties properties) {
+            this.values = properties;
+            this.fetched = System.nanoTime();
+            this.pending = null;
+
+            final boolean abandoned = this.abandoned;
+            this.abandoned = false;
+            return abandoned;
+        }
+
+        private void cancel() {
+            final Future<?> pending;
+            synchronized (this) {
+                pending = this.pending;
+                this.pending = null;
+                this.abandoned = false;
+            }
+
+            if (null != pending) {
+                pending.cancel(true);
+            }
+        }
+
+        private void failed(final Throwable e) {
+            synchronized (this) {
+                this.pending = null;
+                this.abandoned = false;
+            }
+            if (!closed) {
+                LOGGER.log(Level.WARNING, "ConfigSource " + this.source.getName() + " failed, using its last values", e);
+            }
+        }
+
+        private Properties await() {
+            final Future<?> pending;
+            final long deadline;
+            synchronized (this) {
+                pending = this.pending;
+                deadline = this.started + timeout;
+            }
+
+            if (null != pending) {
+                try {
+                    pending.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                } catch (final TimeoutException e) {
+                    synchronized (this) {
+                        this.abandoned = pending == this.pending;
+                    }
+                    LOGGER.warning("ConfigSource " + this.source.getName() + " did not answer within "
+                            + TimeUnit.NANOSECONDS.toMillis(timeout) + " ms, using its last values");
+                } catch (final ExecutionException e) {
+                    // Logged by the fetch
+                } catch (final CancellationException e) {
+                    // Closed while waiting
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            synchronized (this) {
+                return null != this.values ? this.values : new Properties();
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.tomitribe.sabot;
+
+/**
+ * Handle on a configuration value that follows configuration reloads.
+ *
+ * <pre>
+ * &#64;Inject
+ * &#64;Config(value = "service.timeout", defaultValue = "30 seconds")
+ * private ConfigValue&lt;Duration&gt; timeout;
+ * </pre>
+ *
+ * The value is converted when the configuration is published, so {@link #get()} is a single volatile read.
+ * The same instance is returned until the configuration changes, mutable types should not be modified.
+ *
+ * @param <T> Type of the configuration value
+ */
+public final class ConfigValue<T> {
+
+    private final String key;
+    private final String defaultValue;
+    private final Class<T> type;
+    private final Conversions.Conversion<?> conversion;
+
+    private volatile T value;
+
+    ConfigValue(final String key, final String defaultValue, final Class<T> type) {
+        this.key = key;
+        this.defaultValue = defaultValue;
+        this.type = type;
+        this.conversion = Conversions.of(type);
+    }
+
+    /**
+     * @return The value for the current configuration
+     */
+    public T get() {
+        return value;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public Class<T> getType() {
+        return type;
+    }
+
+    /**
+     * Converts the value for a snapshot without publishing it
+     *
+     * @param snapshot Configuration to convert from
+     * @param environment Environment name used in the error message
+     * @return The converted value
+     * @throws IllegalStateException if the key is missing and there is no default
+     */
+    Object convert(final ConfigurationSnapshot snapshot, final String environment) {
+        final String value = snapshot.get(key);
+
+        if (null == value && defaultValue.isEmpty()) {
+            throw new IllegalStateException(String.format(
+                    "Unable to resolve configuration %s for environment '%s'.",
+                    key, environment));
+        }
+
+        return conversion.convert(key, null != value ? value : defaultValue);
+    }
+
+    @SuppressWarnings("unchecked")
+    void set(final Object value) {
+        this.value = (T) value;
+    }
+
+    @Override
+    public String toString() {
+        return "ConfigValue{" +
+                "key='" + key + '\'' +
+                ", value=" + ConfigurationAudit.mask(key, value) +
+                '}';
+    }
+}
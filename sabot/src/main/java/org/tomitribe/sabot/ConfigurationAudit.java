@@ -0,0 +1,233 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.tomitribe.sabot;
+
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Audit trail of the configuration.
+ *
+ * Each load is summarized in a single line, logged right away. Per key entries are only recorded
+ * with -Dorg.tomitribe.sabot.audit=entries: they are queued and formatted and logged by a daemon thread,
+ * so startup does not wait for them. The queue is bounded, entries that do not fit are dropped and counted.
+ * Values of sensitive keys are masked.
+ */
+public enum ConfigurationAudit {
+    ;
+
+    public enum Verbosity {
+        /**
+         * Nothing is logged
+         */
+        NONE,
+        /**
+         * One line per load, the default
+         */
+        SUMMARY,
+        /**
+         * One line per load plus one per key and per override
+         */
+        ENTRIES
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(ConfigurationAudit.class.getName());
+
+    private static final String MASKED = "******";
+    private static final String DEFAULT_MASK = "password,passwd,secret,token,credential,private";
+
+    private static final BlockingQueue<Entry> QUEUE = new ArrayBlockingQueue<Entry>(Integer.getInteger(ConfigurationResolver.AUDIT_QUEUE, 10000));
+    private static final AtomicLong DROPPED = new AtomicLong();
+    private static final AtomicBoolean STARTED = new AtomicBoolean();
+
+    private static volatile Masks masks = new Masks(DEFAULT_MASK);
+
+    /**
+     * @return The verbosity set with -Dorg.tomitribe.sabot.audit, SUMMARY if not set or not valid
+     */
+    public static Verbosity getVerbosity() {
+        final String value = System.getProperty(ConfigurationResolver.AUDIT);
+
+        if (null != value) {
+            try {
+                return Verbosity.valueOf(value.trim().toUpperCase(Locale.ENGLISH));
+            } catch (final IllegalArgumentException e) {
+                // Fall back to the default
+            }
+        }
+
+        return Verbosity.SUMMARY;
+    }
+
+    /**
+     * @return true if per key entries are recorded
+     */
+    public static boolean isRecordingEntries() {
+        return Verbosity.ENTRIES == getVerbosity() && LOGGER.isLoggable(Level.INFO);
+    }
+
+    /**
+     * @param key Configuration key
+     * @return true if the key contains one of the -Dorg.tomitribe.sabot.audit.mask words, case insensitive
+     */
+    public static boolean isSensitive(final String key) {
+        return getMasks().matches(key);
+    }
+
+    /**
+     * @param key Configuration key
+     * @param value Configuration value
+     * @return The value, or a mask if the key is sensitive
+     */
+    public static String mask(final String key, final Object value) {
+        return isSensitive(key) ? MASKED : String.valueOf(value);
+    }
+
+    /**
+     * Records the value of a key
+     */
+    public static void entry(final String key, final Object value) {
+        if (isRecordingEntries()) {
+            offer(new Entry(key, null, value, false, null));
+        }
+    }
+
+    /**
+     * Records the value of a key and where it came from, the name of a properties file for example
+     */
+    static void entry(final String key, final Object value, final String source) {
+        if (isRecordingEntries()) {
+            offer(new Entry(key, null, value, false, source));
+        }
+    }
+
+    /**
+     * Records a value replaced by a ConfigurationObserver
+     */
+    public static void override(final String key, final Object from, final Object to) {
+        if (isRecordingEntries()) {
+            offer(new Entry(key, from, to, true, null));
+        }
+    }
+
+    /**
+     * Logs a summary line right away, unless the verbosity is NONE
+     */
+    static void summary(final String message) {
+        if (Verbosity.NONE != getVerbosity()) {
+            LOGGER.info(message);
+        }
+    }
+
+    private static Masks getMasks() {
+        final String words = System.getProperty(ConfigurationResolver.AUDIT_MASK, DEFAULT_MASK);
+
+        Masks current = masks;
+        if (!current.words.equals(words)) {
+            current = new Masks(words);
+            masks = current;
+        }
+        return current;
+    }
+
+    private static void offer(final Entry entry) {
+        if (!QUEUE.offer(entry)) {
+            DROPPED.incrementAndGet();
+        }
+
+        if (STARTED.compareAndSet(false, true)) {
+            final Thread thread = new Thread(new Writer(), "sabot-configuration-audit");
+            thread.setDaemon(true);
+            // Shared by every application, must not hold on to the one that started it
+            thread.setContextClassLoader(ConfigurationAudit.class.getClassLoader());
+            thread.start();
+        }
+    }
+
+    private static class Writer implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    final Entry entry = QUEUE.take();
+                    LOGGER.info(entry.format());
+
+                    final long dropped = DROPPED.getAndSet(0);
+                    if (dropped > 0) {
+                        LOGGER.warning(dropped + " configuration audit entries dropped, the audit queue is full");
+                    }
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static class Entry {
+
+        private final String key;
+        private final Object from;
+        private final Object to;
+        private final boolean override;
+        private final String source;
+
+        private Entry(final String key, final Object from, final Object to, final boolean override, final String source) {
+            this.key = key;
+            this.from = from;
+            this.to = to;
+            this.override = override;
+            this.source = source;
+        }
+
+        private String format() {
+            if (override) {
+                return String.format("Override config %s from `%s` to `%s`", key, mask(key, from), mask(key, to));
+            }
+            if (null != source) {
+                return String.format("Configuration: %s = `%s` (%s)", key, mask(key, to), source);
+            }
+            return String.format("Configuration: %s = `%s`", key, mask(key, to));
+        }
+    }
+
+    private static class Masks {
+
+        private final String words;
+        private final String[] parts;
+
+        private Masks(final String words) {
+            this.words = words;
+            this.parts = words.trim().isEmpty() ? new String[0] : words.trim().toLowerCase(Locale.ENGLISH).split(" *, *");
+        }
+
+        private boolean matches(final String key) {
+            final String lower = key.toLowerCase(Locale.ENGLISH);
+            for (final String part : parts) {
+                if (lower.contains(part)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
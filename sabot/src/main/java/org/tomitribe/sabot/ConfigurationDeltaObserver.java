@@ -0,0 +1,40 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.tomitribe.sabot;
+
+import java.util.Map;
+
+/**
+ * Configuration observer contributing changes rather than modifying the configuration in place.
+ *
+ * Delta observers registered next to each other, by priority, run in parallel against the same read-only
+ * view of the configuration. Their deltas are then applied in priority order, so the result does not
+ * depend on which observer finishes first. Slow observers, such as ones fetching remote configuration,
+ * therefore do not wait for each other.
+ *
+ * Implementations should register using ConfigurationResolver.registerConfigurationObserver([impl], [priority]);
+ */
+public interface ConfigurationDeltaObserver {
+
+    /**
+     * Called every time the configuration is loaded, possibly concurrently with other delta observers.
+     *
+     * @param resolved Read-only view of the configuration as left by the observers of lower priority
+     * @return The keys to add or override, a null value removes the key. Never null.
+     */
+    Map<String, String> delta(final Map<String, String> resolved);
+}
@@ -19,15 +19,24 @@ package org.tomitribe.sabot;
 import javax.enterprise.context.spi.CreationalContext;
 import javax.enterprise.event.Observes;
 import javax.enterprise.inject.spi.AfterBeanDiscovery;
+import javax.enterprise.inject.spi.AnnotatedParameter;
 import javax.enterprise.inject.spi.Bean;
 import javax.enterprise.inject.spi.BeanManager;
+import javax.enterprise.inject.spi.BeforeBeanDiscovery;
+import javax.enterprise.inject.spi.BeforeShutdown;
 import javax.enterprise.inject.spi.Extension;
 import javax.enterprise.inject.spi.InjectionPoint;
 import javax.enterprise.inject.spi.ProcessBean;
 import javax.enterprise.inject.spi.ProcessProducerMethod;
 import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
 import java.lang.reflect.Type;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 
 public class ConfigurationExtension implements Extension {
@@ -101,29 +110,35 @@ public class ConfigurationExtension implements Extension {
     }
 
     private final Set<Type> types = new HashSet<Type>();
+    private final List<InjectionPoint> injectionPoints = new ArrayList<InjectionPoint>();
     private Bean<?> convBean;
+    private final Set<Type> groupTypes = new HashSet<Type>();
+    private Bean<?> groupBean;
+
+    /**
+     * The resolver of this application
+     */
+    private final ConfigurationResolver resolver = ConfigurationResolver.get();
+
+    /**
+     * Starts loading the configuration before the beans are scanned, so both happen at the same time.
+     * Nothing is resolved until the scan is over, see {@link #addConverter(AfterBeanDiscovery, BeanManager)}.
+     */
+    public void preload(@Observes final BeforeBeanDiscovery bbd) {
+        ConfigurationResolver.preload(Thread.currentThread().getContextClassLoader());
+    }
 
     public void retrieveTypes(@Observes final ProcessBean<?> pb) {
 
-        final ConfigurationResolver resolver = ConfigurationResolver.get();
         final Set<InjectionPoint> ips = pb.getBean().getInjectionPoints();
 
         for (final InjectionPoint injectionPoint : ips) {
             if (injectionPoint.getAnnotated().isAnnotationPresent(Config.class)) {
-                final Config annotation = injectionPoint.getAnnotated().getAnnotation(Config.class);
-                final String key = annotation.value();
-
-                // We don't want to wait until the injection really fails at runtime.
-                // If there is a non resolvable configuration, we want to know at startup.
-                if (!resolver.isResolvableConfig(key, annotation.defaultValue())) {
-                    throw new IllegalStateException(String.format(
-                            "Unable to resolve config %s for environment '%s'. " +
-                                    "Make sure the following property is defined '%s = <your config value>' " +
-                                    "for the '%s' environment",
-                            key, resolver.getEnvironment(), key, resolver.getEnvironment()));
-                }
-
+                // ConfigValue<T> injection points are served by the same producer, which hands out the handle
                 types.add(injectionPoint.getType());
+                injectionPoints.add(injectionPoint);
+            } else if (injectionPoint.getAnnotated().isAnnotationPresent(ConfigGroup.class)) {
+                groupTypes.add(injectionPoint.getType());
             }
         }
     }
@@ -133,9 +148,99 @@ public class ConfigurationExtension implements Extension {
             convBean = ppm.getBean();
         }
 
+        if (ppm.getAnnotated().isAnnotationPresent(ConfigGroup.class)) {
+            groupBean = ppm.getBean();
+        }
+
     }
 
     public void addConverter(@Observes final AfterBeanDiscovery abd, final BeanManager bm) {
+
+        // We don't want to wait until the injection really fails at runtime.
+        // If there is a non resolvable configuration, we want to know at startup.
+        checkResolvable();
+
+        // Compile the injection points now so the producer does a single lookup per injection
+        for (final InjectionPoint injectionPoint : injectionPoints) {
+            ResolutionPlan.of(resolver, injectionPoint);
+        }
+        injectionPoints.clear();
+
         abd.addBean(new ConverterBean(convBean, types));
+
+        if (!groupTypes.isEmpty()) {
+            // Fails now if a group class can not be instantiated
+            for (final Type type : groupTypes) {
+                if (!(type instanceof Class)) {
+                    throw new IllegalStateException("Unsupported @ConfigGroup type " + type);
+                }
+                resolver.binding((Class<?>) type);
+            }
+
+            abd.addBean(new ConverterBean(groupBean, groupTypes));
+        }
+    }
+
+    /**
+     * Checks the scanned injection points, reporting every missing key at once. Waits for the preloaded configuration.
+     */
+    private void checkResolvable() {
+        final Set<String> unresolved = new LinkedHashSet<String>();
+
+        for (final InjectionPoint injectionPoint : injectionPoints) {
+            final Config annotation = injectionPoint.getAnnotated().getAnnotation(Config.class);
+
+            if (!resolver.isResolvableConfig(annotation.value(), annotation.defaultValue())) {
+                final String site = site(injectionPoint);
+                unresolved.add(null == site ? annotation.value() : annotation.value() + " (" + site + ")");
+            }
+        }
+
+        if (!unresolved.isEmpty()) {
+            throw new IllegalStateException(String.format(
+                    "Unable to resolve config %s for environment '%s'. " +
+                            "Make sure these properties are defined for the '%s' environment",
+                    unresolved, resolver.getEnvironment(), resolver.getEnvironment()));
+        }
+    }
+
+    /**
+     * @return The injection point as indexed by sabot-processor, 'Owner#field' or 'Owner#method(parameter types)[position]',
+     * null for a synthetic injection point that has no member
+     */
+    private static String site(final InjectionPoint injectionPoint) {
+        final Member member = injectionPoint.getMember();
+        if (null == member) {
+            return null;
+        }
+
+        final StringBuilder site = new StringBuilder(member.getDeclaringClass().getName()).append('#');
+
+        if (!(injectionPoint.getAnnotated() instanceof AnnotatedParameter)) {
+            return site.append(member.getName()).toString();
+        }
+
+        final Class<?>[] parameters = member instanceof Constructor
+                ? ((Constructor<?>) member).getParameterTypes()
+                : ((Method) member).getParameterTypes();
+
+        site.append(member instanceof Constructor ? "<init>" : member.getName()).append('(');
+        for (int i = 0; i < parameters.length; i++) {
+            if (i > 0) {
+                site.append(',');
+            }
+            site.append(typeName(parameters[i]));
+        }
+
+        return site.append(")[").append(((AnnotatedParameter<?>) injectionPoint.getAnnotated()).getPosition()).append(']').toString();
+    }
+
+    private static String typeName(final Class<?> type) {
+        return type.isArray() ? typeName(type.getComponentType()) + "[]" : type.getName();
+    }
+
+    public void release(@Observes final BeforeShutdown bs) {
+        // The application is going away, do not keep it in memory
+        ConfigurationResolver.release(resolver);
     }
 }
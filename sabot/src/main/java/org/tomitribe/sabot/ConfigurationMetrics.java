@@ -0,0 +1,180 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.tomitribe.sabot;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookup counters and load timings of a ConfigurationResolver.
+ *
+ * Only created when metrics are enabled, a disabled resolver pays for a null check.
+ * Counters are striped so concurrent injections do not contend on them,
+ * the per key maps hold one small counter per key ever looked up.
+ */
+public final class ConfigurationMetrics implements ConfigurationMetricsMXBean {
+
+    private final String environment;
+
+    private final Counter lookups = new Counter(true);
+    private final Counter defaults = new Counter(true);
+    private final Counter misses = new Counter(true);
+    private final Counter conversionFailures = new Counter(true);
+    private final ConcurrentMap<String, Counter> lookupsByKey = new ConcurrentHashMap<String, Counter>();
+    private final ConcurrentMap<String, Counter> defaultsByKey = new ConcurrentHashMap<String, Counter>();
+
+    private final Counter loads = new Counter(false);
+    private volatile long lastLoad;
+    private volatile long lastRead;
+    private volatile long lastInterpolation;
+    private volatile long lastObserver;
+
+    ConfigurationMetrics(final String environment) {
+        this.environment = environment;
+    }
+
+    void lookup(final String key) {
+        lookups.increment();
+        counter(lookupsByKey, key).increment();
+    }
+
+    void defaulted(final String key) {
+        defaults.increment();
+        counter(defaultsByKey, key).increment();
+    }
+
+    void missing() {
+        misses.increment();
+    }
+
+    void conversionFailed() {
+        conversionFailures.increment();
+    }
+
+    /**
+     * Records the phases of a load, in nanoseconds
+     */
+    void loaded(final long read, final long interpolation, final long observer, final long total) {
+        loads.increment();
+        lastRead = read;
+        lastInterpolation = interpolation;
+        lastObserver = observer;
+        lastLoad = total;
+    }
+
+    private static Counter counter(final ConcurrentMap<String, Counter> counters, final String key) {
+        Counter counter = counters.get(key);
+        if (null == counter) {
+            counter = new Counter(false);
+            final Counter existing = counters.putIfAbsent(key, counter);
+            if (null != existing) {
+                counter = existing;
+            }
+        }
+        return counter;
+    }
+
+    @Override
+    public String getEnvironment() {
+        return environment;
+    }
+
+    @Override
+    public long getLookups() {
+        return lookups.sum();
+    }
+
+    @Override
+    public long getDefaults() {
+        return defaults.sum();
+    }
+
+    @Override
+    public double getDefaultRate() {
+        final long lookups = getLookups();
+        return lookups == 0 ? 0 : (double) getDefaults() / lookups;
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public long getConversionFailures() {
+        return conversionFailures.sum();
+    }
+
+    @Override
+    public Map<String, Long> getLookupsByKey() {
+        return sums(lookupsByKey);
+    }
+
+    @Override
+    public Map<String, Long> getDefaultsByKey() {
+        return sums(defaultsByKey);
+    }
+
+    private static Map<String, Long> sums(final Map<String, Counter> counters) {
+        final Map<String, Long> sums = new TreeMap<String, Long>();
+        for (final Map.Entry<String, Counter> entry : counters.entrySet()) {
+            sums.put(entry.getKey(), entry.getValue().sum());
+        }
+        return sums;
+    }
+
+    @Override
+    public long getLoads() {
+        return loads.sum();
+    }
+
+    @Override
+    public long getLastLoadMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(lastLoad);
+    }
+
+    @Override
+    public long getLastReadMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(lastRead);
+    }
+
+    @Override
+    public long getLastInterpolationMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(lastInterpolation);
+    }
+
+    @Override
+    public long getLastObserverMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(lastObserver);
+    }
+
+    /**
+     * Clears the lookup counters, the load timings are kept
+     */
+    @Override
+    public void reset() {
+        lookups.reset();
+        defaults.reset();
+        misses.reset();
+        conversionFailures.reset();
+        lookupsByKey.clear();
+        defaultsByKey.clear();
+    }
+}
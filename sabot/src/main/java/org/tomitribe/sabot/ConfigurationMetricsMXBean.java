@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.tomitribe.sabot;
+
+import java.util.Map;
+
+/**
+ * JMX view of the ConfigurationMetrics, enabled with -Dorg.tomitribe.sabot.metrics=true
+ */
+public interface ConfigurationMetricsMXBean {
+
+    String getEnvironment();
+
+    /**
+     * @return Lookups of a configuration key, by the resolver or by injection
+     */
+    long getLookups();
+
+    /**
+     * @return Lookups answered with the default value because the key is not configured
+     */
+    long getDefaults();
+
+    /**
+     * @return Defaults divided by lookups
+     */
+    double getDefaultRate();
+
+    /**
+     * @return Lookups that failed because the key is not configured and there is no default
+     */
+    long getMisses();
+
+    long getConversionFailures();
+
+    Map<String, Long> getLookupsByKey();
+
+    Map<String, Long> getDefaultsByKey();
+
+    /**
+     * @return Times the configuration was loaded, initialization included
+     */
+    long getLoads();
+
+    long getLastLoadMicros();
+
+    /**
+     * @return Time spent reading the properties files, or the snapshot, during the last load
+     */
+    long getLastReadMicros();
+
+    long getLastInterpolationMicros();
+
+    long getLastObserverMicros();
+
+    void reset();
+}
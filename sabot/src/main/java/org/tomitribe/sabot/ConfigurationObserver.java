@@ -20,7 +20,8 @@ import java.util.Properties;
 
 /**
  * Provides the configuration observer interface.
- * No observer order is provided. Existing resolved properties can be overwritten.
+ * Observers run in ascending priority, then registration order. Existing resolved properties can be overwritten.
+ * Observers that only add or override keys should prefer {@link ConfigurationDeltaObserver}, which can run in parallel.
  *
  * Implementations should register as an observer using ConfigurationResolver.registerConfigurationObserver([impl]);
  */
@@ -30,7 +31,8 @@ public interface ConfigurationObserver {
      * Calls the observer with the current properties.
      * Implementations can add to or override the supplied properties.
      *
-     * This ConfigurationObserver is automatically removed
+     * Called every time the configuration is loaded, which includes reloads when
+     * {@link ConfigurationResolver#RELOAD} is enabled.
      *
      * @param resolved Currently resolved properties
      */
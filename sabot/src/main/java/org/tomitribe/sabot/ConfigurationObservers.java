@@ -0,0 +1,315 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.tomitribe.sabot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Copy-on-write registry of the configuration observers, ordered by priority then registration.
+ *
+ * Registering replaces the array, applying the observers reads it without locking.
+ * ConfigurationObservers modify the properties in place and run one at a time,
+ * consecutive ConfigurationDeltaObservers run in parallel and their deltas are applied in order.
+ */
+final class ConfigurationObservers {
+
+    private static final Registration[] NONE = new Registration[0];
+
+    /**
+     * Delta observers may block on remote calls, so they get plain threads rather than a ForkJoinPool.
+     * Idle threads are released after a minute.
+     */
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, "sabot-configuration-observer-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            // Shared by every application, must not hold on to the one that created it. Tasks run with their own, see ContextTask
+            thread.setContextClassLoader(ConfigurationObservers.class.getClassLoader());
+            return thread;
+        }
+    });
+
+    /**
+     * Set while a delta observer runs. Only the observer itself is let through a load that waits for it,
+     * other work on the same threads (fetching a ConfigSource for one) waits for the configuration as any caller does.
+     */
+    private static final ThreadLocal<Boolean> OBSERVING = new ThreadLocal<Boolean>();
+
+    private final Object lock = new Object();
+    private volatile Registration[] registrations = NONE;
+
+    /**
+     * @return true if the current thread runs a delta observer, on behalf of a load that waits for it
+     */
+    static boolean isObserving() {
+        return null != OBSERVING.get();
+    }
+
+    /**
+     * @return false if the observer is already registered
+     */
+    boolean register(final Object observer, final boolean delta, final int priority) {
+        synchronized (lock) {
+            final Registration[] current = registrations;
+            if (indexOf(current, observer) >= 0) {
+                return false;
+            }
+
+            final Registration registration = new Registration(observer, delta, priority);
+
+            // Insert after every registration of the same or a lower priority
+            int index = 0;
+            while (index < current.length && current[index].priority <= priority) {
+                index++;
+            }
+
+            final Registration[] updated = new Registration[current.length + 1];
+            System.arraycopy(current, 0, updated, 0, index);
+            updated[index] = registration;
+            System.arraycopy(current, index, updated, index + 1, current.length - index);
+
+            registrations = updated;
+            return true;
+        }
+    }
+
+    boolean deregister(final Object observer) {
+        synchronized (lock) {
+            final Registration[] current = registrations;
+            final int index = indexOf(current, observer);
+            if (index < 0) {
+                return false;
+            }
+
+            final Registration[] updated = new Registration[current.length - 1];
+            System.arraycopy(current, 0, updated, 0, index);
+            System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+
+            registrations = updated;
+            return true;
+        }
+    }
+
+    /**
+     * Runs a task on the observer threads, for other work that blocks on remote calls such as fetching a ConfigSource
+     */
+    static <T> Future<T> submit(final Callable<T> task) {
+        return EXECUTOR.submit(ContextTask.of(task));
+    }
+
+    private static int indexOf(final Registration[] registrations, final Object observer) {
+        for (int i = 0; i < registrations.length; i++) {
+            if (registrations[i].observer.equals(observer)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Applies every observer to the properties, in priority order
+     *
+     * @param properties Loaded configuration, modified in place
+     */
+    void apply(final Properties properties) {
+        apply(properties, null);
+    }
+
+    /**
+     * Applies every observer to the properties, in priority order
+     *
+     * @param properties Loaded configuration, modified in place
+     * @param observed If not null, receives the keys an observer added, changed or removed
+     */
+    void apply(final Properties properties, final Set<String> observed) {
+        final Registration[] current = registrations;
+
+        int i = 0;
+        while (i < current.length) {
+            if (!current[i].delta) {
+                // Only compared when the caller asks, an observer may modify the properties in any way
+                final Map<Object, Object> before = null == observed ? null : new HashMap<Object, Object>(properties);
+                ((ConfigurationObserver) current[i].observer).mergeConfiguration(properties);
+                if (null != before) {
+                    observed(before, properties, observed);
+                }
+                i++;
+                continue;
+            }
+
+            int end = i + 1;
+            while (end < current.length && current[end].delta) {
+                end++;
+            }
+
+            apply(properties, deltas(view(properties), current, i, end), observed);
+            i = end;
+        }
+    }
+
+    private static void observed(final Map<Object, Object> before, final Properties after, final Set<String> observed) {
+        for (final Map.Entry<Object, Object> entry : after.entrySet()) {
+            if (!entry.getValue().equals(before.remove(entry.getKey()))) {
+                observed.add(String.valueOf(entry.getKey()));
+            }
+        }
+        for (final Object removed : before.keySet()) {
+            observed.add(String.valueOf(removed));
+        }
+    }
+
+    /**
+     * Applies the observers on top of values that are not copied, when they are all delta observers
+     *
+     * @param values Loaded configuration, not modified
+     * @return The changes in the order they apply, a null value removes the key,
+     * or null if a plain observer is registered as it modifies the properties themselves
+     */
+    Map<String, String> overlay(final Map<String, String> values) {
+        final Registration[] current = registrations;
+        for (final Registration registration : current) {
+            if (!registration.delta) {
+                return null;
+            }
+        }
+
+        final Map<String, String> changes = new LinkedHashMap<String, String>();
+        if (0 == current.length) {
+            return changes;
+        }
+
+        for (final Map<String, String> delta : deltas(Collections.unmodifiableMap(values), current, 0, current.length)) {
+            for (final Map.Entry<String, String> entry : delta.entrySet()) {
+                final String key = entry.getKey();
+                final String previous = changes.containsKey(key) ? changes.get(key) : values.get(key);
+                changes.put(key, entry.getValue());
+
+                if (null != previous && !previous.equals(entry.getValue())) {
+                    ConfigurationAudit.override(key, previous, entry.getValue());
+                }
+            }
+        }
+        return changes;
+    }
+
+    private static Map<String, String> view(final Properties properties) {
+        final Map<String, String> copy = new HashMap<String, String>(properties.size() * 2);
+        for (final Map.Entry<Object, Object> entry : properties.entrySet()) {
+            copy.put(String.valueOf(entry.getKey()), String.valueOf(entry.getValue()));
+        }
+        return Collections.unmodifiableMap(copy);
+    }
+
+    private static List<Map<String, String>> deltas(final Map<String, String> view, final Registration[] registrations, final int from, final int to) {
+        final List<Map<String, String>> deltas = new ArrayList<Map<String, String>>(to - from);
+
+        if (to - from < 2) {
+            deltas.add(delta((ConfigurationDeltaObserver) registrations[from].observer, view));
+            return deltas;
+        }
+
+        final List<Future<Map<String, String>>> futures = new ArrayList<Future<Map<String, String>>>(to - from);
+        for (int i = from; i < to; i++) {
+            final ConfigurationDeltaObserver observer = (ConfigurationDeltaObserver) registrations[i].observer;
+            futures.add(EXECUTOR.submit(ContextTask.of(new Callable<Map<String, String>>() {
+                @Override
+                public Map<String, String> call() {
+                    return delta(observer, view);
+                }
+            })));
+        }
+
+        for (final Future<Map<String, String>> future : futures) {
+            try {
+                deltas.add(future.get());
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while applying the configuration observers", e);
+            } catch (final ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw new IllegalStateException("Configuration observer failed", e.getCause());
+            }
+        }
+
+        return deltas;
+    }
+
+    private static Map<String, String> delta(final ConfigurationDeltaObserver observer, final Map<String, String> view) {
+        OBSERVING.set(Boolean.TRUE);
+        try {
+            return observer.delta(view);
+        } finally {
+            OBSERVING.remove();
+        }
+    }
+
+    private static void apply(final Properties properties, final List<Map<String, String>> deltas, final Set<String> observed) {
+        for (final Map<String, String> delta : deltas) {
+            for (final Map.Entry<String, String> entry : delta.entrySet()) {
+                final String key = entry.getKey();
+                final Object previous = null == entry.getValue() ? properties.remove(key) : properties.put(key, entry.getValue());
+
+                // A delta may return keys it leaves as they are
+                if (null == previous ? null == entry.getValue() : previous.equals(entry.getValue())) {
+                    continue;
+                }
+
+                if (null != observed) {
+                    observed.add(key);
+                }
+                if (null != previous) {
+                    ConfigurationAudit.override(key, previous, entry.getValue());
+                }
+            }
+        }
+    }
+
+    private static class Registration {
+
+        private final Object observer;
+        private final boolean delta;
+        private final int priority;
+
+        private Registration(final Object observer, final boolean delta, final int priority) {
+            this.observer = observer;
+            this.delta = delta;
+            this.priority = priority;
+        }
+    }
+}
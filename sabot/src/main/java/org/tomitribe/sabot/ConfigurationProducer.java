@@ -16,8 +16,6 @@
  */
 package org.tomitribe.sabot;
 
-import org.tomitribe.util.editor.Converter;
-
 import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.inject.Produces;
 import javax.enterprise.inject.spi.InjectionPoint;
@@ -43,27 +41,30 @@ public class ConfigurationProducer {
     @Config
     public Object resolveAndConvert(final InjectionPoint injectionPoint) {
 
-        final Config annotation = injectionPoint.getAnnotated().getAnnotation(Config.class);
-        final String key = annotation.value();
-        final String defaultValue = annotation.defaultValue();
+        // Plans are compiled by the extension at AfterBeanDiscovery, unless the extension is not installed
+        final Object value = ResolutionPlan.of(resolver, injectionPoint).resolve(resolver);
 
-        // unless the extension is not installed, this should never happen because the extension
-        // enforces the resolvability of the config
-        if (!resolver.isResolvableConfig(key, defaultValue)) {
-            throw new IllegalStateException(String.format(
-                    "Unable to resolve configuration %s for environment '%s'.",
-                    key, resolver.getEnvironment()));
+        if (LOGGER.isLoggable(Level.FINEST)) {
+            LOGGER.finest(String.format("Injecting %s in %s", value, injectionPoint.toString()));
         }
 
-        final String value = resolver.resolve(key, defaultValue);
+        return value;
+    }
 
-        final Class<?> toType = (Class<?>) injectionPoint.getAnnotated().getBaseType();
+    /**
+     * Binds the namespace of a @ConfigGroup InjectionPoint to a new instance of its type
+     * @param injectionPoint InjectionPoint
+     * @return The bound instance
+     */
+    @Produces
+    @ConfigGroup
+    public Object bind(final InjectionPoint injectionPoint) {
+        final ConfigGroup annotation = injectionPoint.getAnnotated().getAnnotation(ConfigGroup.class);
 
-        if (LOGGER.isLoggable(Level.FINEST)) {
-            LOGGER.finest(String.format("Injecting %s for key %s in class %s", key, value, injectionPoint.toString()));
+        if (!(injectionPoint.getType() instanceof Class)) {
+            throw new IllegalStateException("Unsupported @ConfigGroup type " + injectionPoint.getType() + " for " + annotation.value());
         }
 
-        return Converter.convert(value, toType, key);
+        return resolver.bind(annotation.value(), (Class<?>) injectionPoint.getType());
     }
-
 }
@@ -0,0 +1,200 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.tomitribe.sabot;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Watches the file-backed properties files of an environment and reloads the ConfigurationResolver when they change.
+ *
+ * Properties files of the environment created next to the watched ones, a test.properties for example, are picked up too.
+ * Changes are debounced: a reload only starts once no further change was seen for the configured delay,
+ * so an editor saving several files, or one file several times, causes a single reload.
+ * Loading runs on the watcher thread, injection keeps reading the previous snapshot until the new one is published.
+ * When there are ConfigSources the configuration is also reloaded periodically, so their changes are picked up.
+ */
+class ConfigurationReloader implements Runnable {
+
+    private static final Logger LOGGER = Logger.getLogger(ConfigurationReloader.class.getName());
+
+    private final ConfigurationResolver resolver;
+    private final WatchService watcher;
+    private final Map<WatchKey, Path> directories;
+    private final Set<Path> files;
+    private final Set<String> names;
+    private final ClassLoader loader;
+    private final long delay;
+    private final long refresh;
+
+    private ConfigurationReloader(final ConfigurationResolver resolver, final WatchService watcher, final List<String> names,
+                                  final long delay, final long refresh) {
+        this.resolver = resolver;
+        this.names = new HashSet<String>(names);
+        this.loader = Thread.currentThread().getContextClassLoader();
+        this.watcher = watcher;
+        this.delay = delay;
+        this.refresh = refresh;
+        this.directories = new HashMap<WatchKey, Path>();
+        this.files = new HashSet<Path>();
+    }
+
+    /**
+     * Starts watching the file-backed resources, resources inside archives can not be watched and are skipped.
+     *
+     * @param resolver ConfigurationResolver to reload
+     * @param resources Properties files of the environment
+     * @param names File names of every layer of the environment, including those not found
+     * @param delay Milliseconds without changes before reloading
+     * @param refresh Milliseconds without changes before reloading anyway, 0 to only reload on changes
+     * @return The running reloader or null if none of the resources can be watched and there is no refresh
+     */
+    static ConfigurationReloader watch(final ConfigurationResolver resolver, final List<URL> resources, final List<String> names,
+                                       final long delay, final long refresh) {
+        final ConfigurationReloader reloader;
+        try {
+            reloader = new ConfigurationReloader(resolver, FileSystems.getDefault().newWatchService(), names, delay, refresh);
+        } catch (final IOException e) {
+            LOGGER.log(Level.WARNING, "Configuration reload disabled, unable to create a WatchService", e);
+            return null;
+        }
+
+        for (final URL resource : resources) {
+            reloader.register(resource);
+        }
+
+        if (reloader.files.isEmpty() && refresh <= 0) {
+            LOGGER.warning("Configuration reload disabled, no file-backed properties found");
+            reloader.stop();
+            return null;
+        }
+
+        final Thread thread = new Thread(reloader, "sabot-configuration-reload");
+        thread.setDaemon(true);
+        thread.start();
+
+        return reloader;
+    }
+
+    private void register(final URL resource) {
+        if (!"file".equals(resource.getProtocol())) {
+            LOGGER.fine("Not watching " + resource.toExternalForm() + ", only files can be watched");
+            return;
+        }
+
+        try {
+            final Path file = Paths.get(resource.toURI()).toAbsolutePath();
+            final Path directory = file.getParent();
+
+            if (!directories.containsValue(directory)) {
+                final WatchKey key = directory.register(watcher,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY,
+                        StandardWatchEventKinds.ENTRY_DELETE);
+                directories.put(key, directory);
+            }
+
+            files.add(file);
+            LOGGER.info("Watching " + file + " for configuration changes");
+
+        } catch (final URISyntaxException e) {
+            LOGGER.log(Level.WARNING, "Unable to watch " + resource.toExternalForm(), e);
+        } catch (final IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to watch " + resource.toExternalForm(), e);
+        }
+    }
+
+    void stop() {
+        try {
+            watcher.close();
+        } catch (final IOException e) {
+            //no-op
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                final WatchKey first = refresh > 0 ? watcher.poll(refresh, TimeUnit.MILLISECONDS) : watcher.take();
+                if (null == first) {
+                    // Nothing changed on disk for a while, the ConfigSources may have
+                    resolver.reload();
+                    continue;
+                }
+
+                boolean changed = changed(first);
+
+                // Wait for the changes to settle
+                WatchKey key;
+                while (null != (key = watcher.poll(delay, TimeUnit.MILLISECONDS))) {
+                    changed |= changed(key);
+                }
+
+                if (changed) {
+                    resolver.reload();
+                }
+            }
+        } catch (final ClosedWatchServiceException e) {
+            //stopped
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean changed(final WatchKey key) {
+        final Path directory = directories.get(key);
+
+        boolean changed = false;
+        for (final WatchEvent<?> event : key.pollEvents()) {
+            if (StandardWatchEventKinds.OVERFLOW == event.kind()) {
+                changed = true;
+            } else if (null != directory) {
+                final Path file = directory.resolve((Path) event.context());
+                final String name = file.getFileName().toString();
+
+                if (names.contains(name)) {
+                    // Found missing, or found here, by the previous load
+                    Environments.forget(loader, name);
+                    changed = true;
+                } else {
+                    changed |= files.contains(file);
+                }
+            }
+        }
+
+        key.reset();
+        return changed;
+    }
+}
@@ -17,108 +17,667 @@
 package org.tomitribe.sabot;
 
 import javax.resource.ResourceException;
-import java.util.ArrayList;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * Singleton responsible for loading the configuration properties prior to CDI initialization.
+ * Responsible for loading the configuration properties prior to CDI initialization.
+ * There is one per application, see {@link #get(ClassLoader)}: static methods such as
+ * {@link #registerConfigurationObserver(ConfigurationObserver)} apply to the resolver of the context class loader.
  */
 public class ConfigurationResolver {
 
     public static final String ENVIRONMENT = "org.tomitribe.sabot.environment";
 
+    /**
+     * Set to 'true' to reload the configuration when a file-backed properties file changes
+     */
+    public static final String RELOAD = "org.tomitribe.sabot.reload";
+
+    /**
+     * Milliseconds without further changes before a reload starts, defaults to 500
+     */
+    public static final String RELOAD_DELAY = "org.tomitribe.sabot.reload.delay";
+
+    /**
+     * Directory holding the properties files, when set the classpath is not scanned
+     */
+    public static final String DIRECTORY = "org.tomitribe.sabot.directory";
+
+    /**
+     * Set to 'false' to ignore the precompiled snapshots built by the sabot-maven-plugin.
+     * Snapshots are never used when reloading or reading from a directory.
+     */
+    public static final String SNAPSHOT = "org.tomitribe.sabot.snapshot";
+
+    /**
+     * Set to 'true' to count lookups and time loads, see {@link ConfigurationMetricsMXBean}
+     */
+    public static final String METRICS = "org.tomitribe.sabot.metrics";
+
+    /**
+     * Set to 'true' to interpolate each key the first time it is looked up instead of the whole configuration at load.
+     * Reference cycles are then reported by the lookup rather than by the load.
+     * Configuration observers receive the uninterpolated values, ${...} references included.
+     */
+    public static final String LAZY = "org.tomitribe.sabot.lazy";
+
+    /**
+     * Audit verbosity: 'none', 'summary' (the default) or 'entries', see {@link ConfigurationAudit}
+     */
+    public static final String AUDIT = "org.tomitribe.sabot.audit";
+
+    /**
+     * Comma separated words, a key containing one of them has its value masked in the audit.
+     * Defaults to password,passwd,secret,token,credential,private
+     */
+    public static final String AUDIT_MASK = "org.tomitribe.sabot.audit.mask";
+
+    /**
+     * Number of audit entries waiting to be logged before new ones are dropped, defaults to 10000
+     */
+    public static final String AUDIT_QUEUE = "org.tomitribe.sabot.audit.queue";
+
+    /**
+     * Milliseconds to wait for each {@link ConfigSource} when loading, defaults to 5000
+     */
+    public static final String SOURCE_TIMEOUT = "org.tomitribe.sabot.source.timeout";
+
+    /**
+     * Milliseconds the values of a {@link ConfigSource} are reused before it is fetched again, defaults to 60000.
+     * When reloading, the configuration is also reloaded this often so changes of the sources are picked up.
+     */
+    public static final String SOURCE_TTL = "org.tomitribe.sabot.source.ttl";
+
+    /**
+     * Directory the configuration is saved to after each load, in one file per application named after the URLs of its class loader.
+     * When the file holds a configuration of the same application and environment, the next start serves it right away
+     * and loads the live configuration in the background.
+     * There is no default directory. The files hold every value unmasked, passwords included, and are created readable by their owner only.
+     */
+    public static final String LAST_KNOWN_GOOD = "org.tomitribe.sabot.lastknowngood";
+
     private static final Logger LOGGER = Logger.getLogger(ConfigurationResolver.class.getName());
-    private static final ConfigurationResolver instance = new ConfigurationResolver();
+    private static final ConfigurationResolvers RESOLVERS = new ConfigurationResolvers();
 
-    private final Properties properties = new Properties();
+    private volatile ConfigurationSnapshot snapshot = ConfigurationSnapshot.EMPTY;
     private final String environment;
-    private final AtomicBoolean initialized;
+    private final Object initialization = new Object();
+    private volatile boolean initialized;
+    private Thread initializing;
+    private final AtomicBoolean unloaded = new AtomicBoolean();
+    private final AtomicReference<Future<ConfigurationResolver>> preloading = new AtomicReference<Future<ConfigurationResolver>>();
     private final ReentrantLock lock;
-    private final List<ConfigurationObserver> observers;
+    private final ConfigurationObservers observers;
+    private final ConcurrentMap<Object, ResolutionPlan> plans;
+    private final ConcurrentMap<List<Object>, ConfigValue<?>> values;
+    private final ConcurrentMap<Class<?>, GroupBinding> bindings;
+    private final boolean reload;
+    private final long reloadDelay;
+    private final boolean snapshots;
+    private final ConfigurationMetrics metrics;
+    private final boolean lazy;
+    private final long sourceTimeout;
+    private final long sourceTtl;
+    private final File lastKnownGood;
+    private final String application;
+    private volatile ConfigurationReloader reloader;
+
+    /**
+     * Set once the application is released, background work started before then no longer loads or publishes
+     */
+    private volatile boolean disposed;
+
+    /**
+     * Loads the live configuration while the last known good one is served, null once done
+     */
+    private volatile Future<?> refreshing;
+    private volatile Thread refresher;
+
+    /**
+     * Kept between loads when reloading so a reload only interpolates the keys the change affects
+     */
+    private Interpolation.Graph graph;
+
+    /**
+     * Discovered on the first load, with the class loader of the application
+     */
+    private volatile ConfigSources sources;
 
     ConfigurationResolver() {
+        this(Thread.currentThread().getContextClassLoader());
+    }
+
+    /**
+     * @param loader Class loader of the application
+     */
+    ConfigurationResolver(final ClassLoader loader) {
         this.environment = System.getProperty(ConfigurationResolver.ENVIRONMENT);
-        this.initialized = new AtomicBoolean(false);
+        this.reload = Boolean.getBoolean(ConfigurationResolver.RELOAD);
+        this.reloadDelay = Long.getLong(ConfigurationResolver.RELOAD_DELAY, 500);
+        this.snapshots = !this.reload
+                && null == System.getProperty(ConfigurationResolver.DIRECTORY)
+                && !"false".equals(System.getProperty(ConfigurationResolver.SNAPSHOT));
+        this.lazy = Boolean.getBoolean(ConfigurationResolver.LAZY);
+        this.sourceTimeout = Long.getLong(ConfigurationResolver.SOURCE_TIMEOUT, 5000);
+        this.sourceTtl = Long.getLong(ConfigurationResolver.SOURCE_TTL, 60000);
+        final String lastKnownGood = System.getProperty(ConfigurationResolver.LAST_KNOWN_GOOD);
+        this.application = null != lastKnownGood ? LastKnownGood.application(null != loader ? loader : ConfigurationResolver.class.getClassLoader()) : null;
+        this.lastKnownGood = null != lastKnownGood ? LastKnownGood.file(new File(lastKnownGood), this.application) : null;
+        this.metrics = Boolean.getBoolean(ConfigurationResolver.METRICS) ? new ConfigurationMetrics(getEnvironment()) : null;
         this.lock = new ReentrantLock();
-        this.observers = new ArrayList<ConfigurationObserver>();
+        this.observers = new ConfigurationObservers();
+        this.plans = new ConcurrentHashMap<Object, ResolutionPlan>();
+        this.values = new ConcurrentHashMap<List<Object>, ConfigValue<?>>();
+        this.bindings = new ConcurrentHashMap<Class<?>, GroupBinding>();
     }
 
+    /**
+     * Loads the configuration once. Other threads calling in the meantime wait for it to be published,
+     * afterwards this is a single volatile read. If loading fails the next caller tries again.
+     */
     private void initialize() {
-        if (!this.initialized.getAndSet(true)) {
+        if (this.initialized) {
+            return;
+        }
 
-            List<ConfigurationObserver> current;
+        // Observers run while loading, waiting would deadlock them. They see the configuration as it was.
+        if (ConfigurationObservers.isObserving()) {
+            unloaded();
+            return;
+        }
 
-            this.lock.lock();
+        synchronized (this.initialization) {
+            if (this.initialized) {
+                return;
+            }
+
+            if (Thread.currentThread() == this.initializing) {
+                unloaded();
+                return;
+            }
+
+            this.initializing = Thread.currentThread();
             try {
-                current = new ArrayList<ConfigurationObserver>(this.observers);
+                if (!serveLastKnownGood()) {
+                    loadAndPublish();
+                    startReloading();
+                }
+
+                this.initialized = true;
             } finally {
-                this.lock.unlock();
+                this.initializing = null;
             }
+        }
+    }
 
-            //Default
-            final String environment = this.environment;
-            try {
-                this.properties.putAll(Environments.getProperties(environment));
-            } catch (final ResourceException e) {
-                throw new RuntimeException("Failed to load environment: " + environment, e);
+    /**
+     * Reports a lookup made while the configuration loads for the first time, by an observer or the loading thread itself.
+     * It is served from the configuration as it was, nothing but defaults unless a last known good one was published.
+     */
+    private void unloaded() {
+        if (ConfigurationSnapshot.EMPTY != this.snapshot) {
+            return;
+        }
+
+        // Once as a warning, an observer usually looks up several keys
+        final Level level = this.unloaded.compareAndSet(false, true) ? Level.WARNING : Level.FINE;
+        if (LOGGER.isLoggable(level)) {
+            LOGGER.log(level, "Configuration for environment '" + getEnvironment() + "' resolved by " + Thread.currentThread().getName()
+                    + " while it loads for the first time, defaults are used");
+        }
+    }
+
+    private void startReloading() {
+        if (this.reload && !this.disposed) {
+            final ConfigSources sources = this.sources;
+            this.reloader = ConfigurationReloader.watch(this, Environments.getResources(this.environment),
+                    Environments.getFileNames(this.environment), this.reloadDelay,
+                    null == sources || sources.isEmpty() ? 0 : this.sourceTtl);
+        }
+    }
+
+    /**
+     * Publishes the configuration saved by the previous run, if any, and loads the live one on a background thread
+     *
+     * @return false if there is no saved configuration for the environment
+     */
+    private boolean serveLastKnownGood() {
+        if (null == this.lastKnownGood) {
+            return false;
+        }
+
+        final long start = System.nanoTime();
+        final Map<String, String> saved = LastKnownGood.read(this.lastKnownGood, this.application, getEnvironment());
+        if (null == saved) {
+            return false;
+        }
+
+        publish(new ConfigurationSnapshot(saved));
+
+        ConfigurationAudit.summary(String.format(
+                "Configuration for environment '%s': %d properties from the last known good %s in %.1f ms, refreshing in the background",
+                getEnvironment(), saved.size(), this.lastKnownGood, millis(System.nanoTime() - start)));
+
+        final FutureTask<Void> refresh = new FutureTask<Void>(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (loadAndPublish()) {
+                        LOGGER.info("Configuration refreshed for environment '" + getEnvironment() + "'");
+                    }
+                } catch (final RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Failed to refresh configuration, keeping the last known good configuration", e);
+                } finally {
+                    refreshing = null;
+                    refresher = null;
+                }
+
+                startReloading();
             }
+        }, null);
+
+        // Inherits the context class loader, the application's
+        final Thread thread = new Thread(refresh, "sabot-configuration-refresh");
+        thread.setDaemon(true);
+        this.refreshing = refresh;
+        this.refresher = thread;
+        thread.start();
 
-            //Additional
-            for (final ConfigurationObserver observer : current) {
-                observer.mergeConfiguration(this.properties);
+        return true;
+    }
+
+    /**
+     * Waits for the live configuration while the last known good one is served
+     */
+    private void awaitRefresh() {
+        final Future<?> refreshing = this.refreshing;
+        if (null == refreshing || Thread.currentThread() == this.refresher || ConfigurationObservers.isObserving()) {
+            return;
+        }
+
+        try {
+            refreshing.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (final ExecutionException e) {
+            // Logged by the refresh
+        }
+    }
+
+    /**
+     * Starts loading the configuration on a background thread. Lookups made before it completes wait for it
+     * rather than loading it a second time. Calling it again returns the same Future, unless loading failed.
+     *
+     * @param loader Class loader of the application, the properties files are looked up with it
+     * @return Completes with this resolver once the configuration is published
+     */
+    Future<ConfigurationResolver> startPreload(final ClassLoader loader) {
+        final Future<ConfigurationResolver> existing = this.preloading.get();
+        if (null != existing) {
+            return existing;
+        }
+
+        final FutureTask<ConfigurationResolver> task = new FutureTask<ConfigurationResolver>(new Callable<ConfigurationResolver>() {
+            @Override
+            public ConfigurationResolver call() {
+                initialize();
+                return ConfigurationResolver.this;
             }
+        }) {
+            @Override
+            protected void setException(final Throwable t) {
+                // Lookups will try again, so may the next preload
+                preloading.compareAndSet(this, null);
+                LOGGER.log(Level.WARNING, "Failed to preload configuration for environment '" + getEnvironment() + "'", t);
+                super.setException(t);
+            }
+        };
+
+        if (!this.preloading.compareAndSet(null, task)) {
+            return this.preloading.get();
+        }
+
+        if (this.initialized) {
+            task.run();
+            return task;
+        }
+
+        final Thread thread = new Thread(task, "sabot-configuration-preload");
+        thread.setDaemon(true);
+        thread.setContextClassLoader(loader);
+        thread.start();
 
-            //Final
-            for (final Map.Entry<Object, Object> entry : this.properties.entrySet()) {
-                LOGGER.info(String.format("Configuration: %s = `%s`", entry.getKey(), entry.getValue()));
+        return task;
+    }
+
+    /**
+     * Loads the environment properties and applies the observers
+     *
+     * @return A new snapshot of the configuration
+     */
+    private synchronized ConfigurationSnapshot load() {
+        //Default
+        final String environment = this.environment;
+        final long start = System.nanoTime();
+
+        if (null == this.sources) {
+            this.sources = ConfigSources.load(Thread.currentThread().getContextClassLoader(), this.sourceTimeout, this.sourceTtl, new Runnable() {
+                @Override
+                public void run() {
+                    // A source answered after the load gave up on it, its values are only used by another load
+                    if (!disposed) {
+                        reload();
+                    }
+                }
+            });
+        }
+
+        // A snapshot can not hold what the sources will answer
+        Properties properties = this.snapshots && this.sources.isEmpty() ? Snapshots.read(environment) : null;
+        final boolean precompiled = null != properties;
+        final boolean lazy = this.lazy && !precompiled;
+        final long read;
+        final long interpolated;
+        LayeredProperties merged = null;
+        Set<String> changed = null;
+
+        if (precompiled) {
+            read = interpolated = System.nanoTime();
+        } else if (lazy) {
+            // Interpolated key by key on first lookup, read from the layers
+            merged = merge(environment);
+            read = interpolated = System.nanoTime();
+        } else {
+            merged = merge(environment);
+            read = System.nanoTime();
+
+            // Process any {} variable references
+            if (!this.reload) {
+                properties = Interpolation.interpolate(merged);
+            } else if (null == this.graph) {
+                this.graph = new Interpolation.Graph(merged);
+                properties = this.graph.toProperties();
+            } else {
+                changed = this.graph.replace(merged);
+                properties = this.graph.toProperties();
+            }
+            interpolated = System.nanoTime();
+        }
+
+        //Additional
+        final Set<String> touched = ConfigurationAudit.isRecordingEntries() && !lazy ? new HashSet<String>() : null;
+        final Map<?, ?> loaded;
+        if (lazy) {
+            // Observers see the values before interpolation
+            loaded = observe(merged);
+        } else {
+            this.observers.apply(properties, touched);
+            loaded = properties;
+        }
+
+        final long observed = System.nanoTime();
+        if (null != this.metrics) {
+            this.metrics.loaded(read - start, interpolated - read, observed - interpolated, observed - start);
+        }
+
+        ConfigurationAudit.summary(String.format(
+                "Configuration for environment '%s': %d properties from %s%s in %.1f ms (read %.1f ms, interpolation %.1f ms, observers %.1f ms)",
+                getEnvironment(), loaded.size(),
+                precompiled ? Snapshots.getResourceName(environment) : merged.getLayerNames(),
+                lazy ? ", resolved on first use," : null != changed ? ", " + changed.size() + " changed," : "",
+                millis(observed - start), millis(read - start), millis(interpolated - read), millis(observed - interpolated)));
+
+        if (lazy) {
+            // Each key is recorded when it is first resolved
+            return ConfigurationSnapshot.lazy(loaded);
+        }
+
+        //Final
+        if (null != touched) {
+            if (null != changed) {
+                // Only what the reload changed, removed keys show as null
+                for (final String key : changed) {
+                    ConfigurationAudit.entry(key, properties.getProperty(key), source(merged, touched, key));
+                }
+            } else {
+                for (final Map.Entry<Object, Object> entry : properties.entrySet()) {
+                    final String key = String.valueOf(entry.getKey());
+                    ConfigurationAudit.entry(key, entry.getValue(), source(merged, touched, key));
+                }
             }
         }
+
+        //Publish an immutable copy so lookups never take a lock
+        return new ConfigurationSnapshot(properties);
     }
 
-    public static void reset(){
-        ConfigurationResolver.get().clear();
+    /**
+     * @return The layers with the changes of the observers as one more layer,
+     * or a copy the observers modified if one of them needs the properties themselves or removes a key
+     */
+    private Map<?, ?> observe(final LayeredProperties merged) {
+        final Map<String, String> changes = this.observers.overlay(merged);
+
+        if (null == changes) {
+            final Properties properties = new Properties();
+            properties.putAll(merged);
+            this.observers.apply(properties);
+            return properties;
+        }
+
+        if (changes.isEmpty()) {
+            return merged;
+        }
+
+        if (changes.containsValue(null)) {
+            final Properties properties = new Properties();
+            properties.putAll(merged);
+            for (final Map.Entry<String, String> change : changes.entrySet()) {
+                if (null == change.getValue()) {
+                    properties.remove(change.getKey());
+                } else {
+                    properties.setProperty(change.getKey(), change.getValue());
+                }
+            }
+            return properties;
+        }
+
+        final Properties layer = new Properties();
+        layer.putAll(changes);
+        return merged.plus(Collections.singletonList("observer"), Collections.singletonList(layer));
     }
 
-    private void clear(){
-        this.properties.clear();
-        this.initialized.set(false);
+    /**
+     * @return "observer" if an observer set the key, otherwise the layer that supplied it or the snapshot
+     */
+    private static String source(final LayeredProperties merged, final Set<String> touched, final String key) {
+        if (touched.contains(key)) {
+            return "observer";
+        }
+
+        if (null == merged) {
+            return "snapshot";
+        }
+
+        final String layer = merged.getLayer(key);
+        return null == layer ? "observer" : layer;
     }
 
-    public static void registerConfigurationObserver(final ConfigurationObserver observer) {
-        ConfigurationResolver.get().register(observer);
+    private static double millis(final long nanos) {
+        return nanos / 1000000.0;
     }
 
-    @SuppressWarnings("unused")
-    public static void deregisterConfigurationObserver(final ConfigurationObserver observer) {
-        ConfigurationResolver.get().deregister(observer);
+    /**
+     * @return The layers of the properties files then those of the ConfigSources
+     */
+    private LayeredProperties merge(final String environment) {
+        try {
+            return this.sources.layer(Environments.merge(environment));
+        } catch (final ResourceException e) {
+            throw new RuntimeException("Failed to load environment: " + environment, e);
+        }
     }
 
-    private void register(final ConfigurationObserver observer) {
-        lock.lock();
+    /**
+     * Loads the configuration again and publishes it in a single step.
+     * Readers keep seeing the previous snapshot until the new one is complete.
+     * If loading fails the previous snapshot is kept.
+     */
+    void reload() {
         try {
-            if (!observers.contains(observer)) {
-                observers.add(observer);
+            if (loadAndPublish()) {
+                LOGGER.info("Configuration reloaded for environment '" + getEnvironment() + "'");
             }
-        } finally {
-            lock.unlock();
+        } catch (final RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Failed to reload configuration, keeping the current configuration", e);
+        }
+    }
+
+    /**
+     * @return false if the application was released, nothing is then loaded or published
+     */
+    private boolean loadAndPublish() {
+        if (this.disposed) {
+            return false;
+        }
+
+        final ConfigurationSnapshot loaded = load();
+        if (this.disposed) {
+            return false;
         }
+        publish(loaded);
+
+        if (null != this.lastKnownGood) {
+            // Only a configuration that was published, lazy ones are never complete
+            final Map<String, String> entries = loaded.toMap();
+            if (null != entries) {
+                LastKnownGood.write(this.lastKnownGood, this.application, getEnvironment(), entries);
+            }
+        }
+        return true;
     }
 
-    private void deregister(final ConfigurationObserver observer) {
-        lock.lock();
+    /**
+     * Makes the snapshot current and updates every ConfigValue.
+     * All values are converted before anything is published, so a value that does not convert
+     * leaves the current configuration in place.
+     */
+    private void publish(final ConfigurationSnapshot snapshot) {
+        this.lock.lock();
         try {
-            observers.remove(observer);
+            final ConfigValue<?>[] handles = this.values.values().toArray(new ConfigValue<?>[0]);
+
+            final Object[] converted = new Object[handles.length];
+            for (int i = 0; i < handles.length; i++) {
+                converted[i] = handles[i].convert(snapshot, getEnvironment());
+            }
+
+            this.snapshot = snapshot;
+
+            for (int i = 0; i < handles.length; i++) {
+                handles[i].set(converted[i]);
+            }
         } finally {
-            lock.unlock();
+            this.lock.unlock();
         }
     }
 
+    public static void reset(){
+        final ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        ConfigurationResolver.get(loader).clear(loader);
+    }
+
+    private void clear(final ClassLoader loader){
+        stopReloading();
+        Environments.clearResources(loader);
+        synchronized (this) {
+            this.graph = null;
+            this.sources = null;
+        }
+        synchronized (this.initialization) {
+            this.snapshot = ConfigurationSnapshot.EMPTY;
+            this.initialized = false;
+            this.preloading.set(null);
+        }
+    }
+
+    void stopReloading() {
+        final ConfigurationReloader reloader = this.reloader;
+        if (null != reloader) {
+            reloader.stop();
+            this.reloader = null;
+        }
+    }
+
+    public static void registerConfigurationObserver(final ConfigurationObserver observer) {
+        ConfigurationResolver.get().register(observer, 0);
+    }
+
+    /**
+     * Registers an observer with a priority. Observers run in ascending priority, so an observer
+     * sees, and can override, the changes of the observers with a lower priority.
+     * Observers with the same priority run in registration order. The default priority is 0.
+     *
+     * @param observer ConfigurationObserver
+     * @param priority Priority of the observer
+     */
+    public static void registerConfigurationObserver(final ConfigurationObserver observer, final int priority) {
+        ConfigurationResolver.get().register(observer, priority);
+    }
+
+    public static void registerConfigurationObserver(final ConfigurationDeltaObserver observer) {
+        ConfigurationResolver.get().register(observer, 0);
+    }
+
+    /**
+     * Registers a delta observer with a priority, see {@link #registerConfigurationObserver(ConfigurationObserver, int)}
+     *
+     * @param observer ConfigurationDeltaObserver
+     * @param priority Priority of the observer
+     */
+    public static void registerConfigurationObserver(final ConfigurationDeltaObserver observer, final int priority) {
+        ConfigurationResolver.get().register(observer, priority);
+    }
+
+    @SuppressWarnings("unused")
+    public static void deregisterConfigurationObserver(final ConfigurationObserver observer) {
+        ConfigurationResolver.get().observers.deregister(observer);
+    }
+
+    @SuppressWarnings("unused")
+    public static void deregisterConfigurationObserver(final ConfigurationDeltaObserver observer) {
+        ConfigurationResolver.get().observers.deregister(observer);
+    }
+
+    void register(final ConfigurationObserver observer, final int priority) {
+        Objects.requireNonNull(observer, "observer can not be null");
+        this.observers.register(observer, false, priority);
+    }
+
+    void register(final ConfigurationDeltaObserver observer, final int priority) {
+        Objects.requireNonNull(observer, "observer can not be null");
+        this.observers.register(observer, true, priority);
+    }
+
     public boolean isResolvableConfig(final String key, final String defaultValue) {
 
         this.initialize();
@@ -126,7 +685,13 @@ public class ConfigurationResolver {
         Objects.requireNonNull(key, "config key can not be null");
         Objects.requireNonNull(defaultValue, "default config value can not be null");
 
-        return this.properties.containsKey(key) || !defaultValue.isEmpty();
+        if (this.snapshot.containsKey(key) || !defaultValue.isEmpty()) {
+            return true;
+        }
+
+        // The key may be new since the last known good configuration was saved
+        awaitRefresh();
+        return this.snapshot.containsKey(key);
     }
 
     public String resolve(final String key, final String defaultValue) {
@@ -136,7 +701,247 @@ public class ConfigurationResolver {
         Objects.requireNonNull(key, "config key can not be null");
         Objects.requireNonNull(defaultValue, "default config value can not be null");
 
-        return this.properties.getProperty(key, defaultValue);
+        final String value = this.snapshot.get(key);
+
+        if (null != this.metrics) {
+            this.metrics.lookup(key);
+            if (null == value) {
+                this.metrics.defaulted(key);
+            }
+        }
+
+        return null != value ? value : defaultValue;
+    }
+
+    /**
+     * Resolves the configuration and converts it to the requested type.
+     * Converted immutable values are cached until the configuration is reloaded.
+     *
+     * @param key Configuration key
+     * @param defaultValue Value used when the key is not configured
+     * @param type Target type
+     * @return The converted value
+     */
+    public Object resolve(final String key, final String defaultValue, final Class<?> type) {
+
+        this.initialize();
+
+        Objects.requireNonNull(key, "config key can not be null");
+        Objects.requireNonNull(defaultValue, "default config value can not be null");
+        Objects.requireNonNull(type, "config type can not be null");
+
+        final ConfigurationSnapshot snapshot = this.snapshot;
+        final String value = snapshot.get(key);
+
+        if (null == this.metrics) {
+            return snapshot.convert(key, null != value ? value : defaultValue, type);
+        }
+
+        this.metrics.lookup(key);
+        if (null == value) {
+            this.metrics.defaulted(key);
+        }
+
+        try {
+            return snapshot.convert(key, null != value ? value : defaultValue, type);
+        } catch (final RuntimeException e) {
+            this.metrics.conversionFailed();
+            throw e;
+        }
+    }
+
+    /**
+     * Resolves the configuration as an int. The value is parsed once per configuration snapshot,
+     * repeated calls do not allocate.
+     *
+     * @param key Configuration key
+     * @param defaultValue Value returned when the key is not configured
+     * @return The configured value or the default
+     * @throws IllegalArgumentException if the configured value is not an int, as Integer.decode
+     */
+    public int getInt(final String key, final int defaultValue) {
+        final ConfigurationSnapshot.Parsed parsed = parse(key, ConfigurationSnapshot.Primitive.INT);
+        return null != parsed ? parsed.asInt() : defaultValue;
+    }
+
+    /**
+     * Resolves the configuration as a long, see {@link #getInt(String, int)}
+     *
+     * @throws IllegalArgumentException if the configured value is not a long, as Long.decode
+     */
+    public long getLong(final String key, final long defaultValue) {
+        final ConfigurationSnapshot.Parsed parsed = parse(key, ConfigurationSnapshot.Primitive.LONG);
+        return null != parsed ? parsed.asLong() : defaultValue;
+    }
+
+    /**
+     * Resolves the configuration as a boolean, see {@link #getInt(String, int)}
+     *
+     * @throws IllegalArgumentException if the configured value is neither 'true' nor 'false', ignoring case
+     */
+    public boolean getBoolean(final String key, final boolean defaultValue) {
+        final ConfigurationSnapshot.Parsed parsed = parse(key, ConfigurationSnapshot.Primitive.BOOLEAN);
+        return null != parsed ? parsed.asBoolean() : defaultValue;
+    }
+
+    /**
+     * Resolves the configuration as a double, see {@link #getInt(String, int)}
+     *
+     * @throws IllegalArgumentException if the configured value is not a double, as Double.valueOf
+     */
+    public double getDouble(final String key, final double defaultValue) {
+        final ConfigurationSnapshot.Parsed parsed = parse(key, ConfigurationSnapshot.Primitive.DOUBLE);
+        return null != parsed ? parsed.asDouble() : defaultValue;
+    }
+
+    /**
+     * Every key of a namespace, 'db.pool' for db.pool.size, db.pool.timeout and so on.
+     * Found with a binary search over the sorted keys and kept until the configuration is reloaded.
+     *
+     * @param prefix Namespace, a trailing '.' is optional, empty for the whole configuration
+     * @return The keys under the prefix, without it, and their values. Sorted and unmodifiable.
+     */
+    public Map<String, String> subset(final String prefix) {
+
+        this.initialize();
+
+        Objects.requireNonNull(prefix, "prefix can not be null");
+
+        return this.snapshot.subset(prefix);
+    }
+
+    /**
+     * Creates an instance of a class and sets its fields from the keys of a namespace.
+     * Each field is set from the key of the same name, or of its {@link Config} annotation, under the prefix.
+     * Fields whose key is missing, without a default, keep their initial value.
+     * The converted values are kept until the configuration is reloaded, each call returns a new instance.
+     *
+     * @param prefix Namespace, a trailing '.' is optional
+     * @param type Class with a no-argument constructor
+     * @return A new instance bound to the namespace
+     * @throws IllegalStateException if the class can not be instantiated
+     * @throws IllegalArgumentException if a value does not convert to the type of its field
+     */
+    public <T> T bind(final String prefix, final Class<T> type) {
+
+        this.initialize();
+
+        Objects.requireNonNull(prefix, "prefix can not be null");
+        Objects.requireNonNull(type, "type can not be null");
+
+        final GroupBinding binding = binding(type);
+        return type.cast(binding.bind(this.snapshot.group(prefix, binding)));
+    }
+
+    /**
+     * Kept per application rather than globally, so the classes of an undeployed application are not held on to
+     *
+     * @param type Class to bind
+     * @return The binding of the class
+     * @throws IllegalStateException if the class has no no-argument constructor
+     */
+    GroupBinding binding(final Class<?> type) {
+        final GroupBinding binding = this.bindings.get(type);
+        if (null != binding) {
+            return binding;
+        }
+
+        final GroupBinding created = new GroupBinding(type);
+        final GroupBinding existing = this.bindings.putIfAbsent(type, created);
+        return null != existing ? existing : created;
+    }
+
+    private ConfigurationSnapshot.Parsed parse(final String key, final ConfigurationSnapshot.Primitive primitive) {
+
+        this.initialize();
+
+        Objects.requireNonNull(key, "config key can not be null");
+
+        if (null == this.metrics) {
+            return this.snapshot.parse(key, primitive);
+        }
+
+        this.metrics.lookup(key);
+
+        final ConfigurationSnapshot.Parsed parsed;
+        try {
+            parsed = this.snapshot.parse(key, primitive);
+        } catch (final RuntimeException e) {
+            this.metrics.conversionFailed();
+            throw e;
+        }
+
+        if (null == parsed) {
+            this.metrics.defaulted(key);
+        }
+        return parsed;
+    }
+
+    /**
+     * Returns a handle on the configuration value that is kept up to date when the configuration is reloaded.
+     * Handles are shared, asking twice for the same key, default and type returns the same handle.
+     *
+     * @param key Configuration key
+     * @param defaultValue Value used when the key is not configured
+     * @param type Type of the value
+     * @param <T> Type of the value
+     * @return The ConfigValue
+     */
+    @SuppressWarnings("unchecked")
+    public <T> ConfigValue<T> getConfigValue(final String key, final String defaultValue, final Class<T> type) {
+
+        Objects.requireNonNull(key, "config key can not be null");
+        Objects.requireNonNull(defaultValue, "default config value can not be null");
+        Objects.requireNonNull(type, "config type can not be null");
+
+        final List<Object> id = Arrays.<Object>asList(key, defaultValue, type);
+
+        ConfigValue<?> value = this.values.get(id);
+        if (null == value) {
+            this.initialize();
+
+            // Registering under the lock guarantees the handle sees every later publish
+            this.lock.lock();
+            try {
+                value = this.values.get(id);
+                if (null == value) {
+                    final ConfigValue<T> created = new ConfigValue<T>(key, defaultValue, type);
+                    created.set(created.convert(this.snapshot, getEnvironment()));
+
+                    this.values.put(id, created);
+                    value = created;
+                }
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        return (ConfigValue<T>) value;
+    }
+
+    /**
+     * @return The metrics of the ConfigurationResolver, or null when -Dorg.tomitribe.sabot.metrics=true is not set
+     */
+    public static ConfigurationMetrics getConfigurationMetrics() {
+        return ConfigurationResolver.get().metrics;
+    }
+
+    ConfigurationMetrics metrics() {
+        return this.metrics;
+    }
+
+    ConfigurationSnapshot snapshot() {
+        this.initialize();
+        return this.snapshot;
+    }
+
+    ResolutionPlan getPlan(final Object site) {
+        return this.plans.get(site);
+    }
+
+    ResolutionPlan addPlan(final Object site, final ResolutionPlan plan) {
+        final ResolutionPlan existing = this.plans.putIfAbsent(site, plan);
+        return null != existing ? existing : plan;
     }
 
     public String getEnvironment() {
@@ -144,11 +949,91 @@ public class ConfigurationResolver {
     }
 
     /**
-     * Get the ConfigurationResolver singleton
+     * Get the ConfigurationResolver of the current application
      *
      * @return The ConfigurationResolver for the current classloader.
      */
     public static ConfigurationResolver get() {
-        return instance;
+        return get(Thread.currentThread().getContextClassLoader());
+    }
+
+    /**
+     * Each class loader, usually each application, has its own ConfigurationResolver,
+     * its own configuration and its own observers.
+     *
+     * @param loader Class loader of the application, the properties files are looked up with it
+     * @return The ConfigurationResolver for the classloader, created on first use
+     */
+    public static ConfigurationResolver get(final ClassLoader loader) {
+        return RESOLVERS.get(null != loader ? loader : ConfigurationResolver.class.getClassLoader());
+    }
+
+    /**
+     * Starts loading the configuration of the current application in the background,
+     * see {@link #preload(ClassLoader)}
+     *
+     * @return Completes with the ConfigurationResolver of the context class loader once its configuration is loaded
+     */
+    public static Future<ConfigurationResolver> preload() {
+        return preload(Thread.currentThread().getContextClassLoader());
+    }
+
+    /**
+     * Starts loading the configuration of an application on a background thread, so it overlaps with
+     * whatever the container does next, classpath scanning for example. Lookups made in the meantime,
+     * from any thread, wait for this load to complete instead of starting another one.
+     * Observers should be registered before, those registered later only apply from the next reload.
+     *
+     * @param loader Class loader of the application, the properties files are looked up with it
+     * @return Completes with the application's ConfigurationResolver once its configuration is loaded,
+     * or with the load failure. Calling it again returns the same Future.
+     */
+    public static Future<ConfigurationResolver> preload(final ClassLoader loader) {
+        final ClassLoader application = null != loader ? loader : ConfigurationResolver.class.getClassLoader();
+        return RESOLVERS.get(application).startPreload(application);
+    }
+
+    /**
+     * Forgets the ConfigurationResolver of a class loader and stops reloading its configuration.
+     * Called when an application is undeployed so it does not keep its class loader alive.
+     *
+     * @param loader Class loader of the application
+     */
+    public static void release(final ClassLoader loader) {
+        final ConfigurationResolver resolver = RESOLVERS.remove(null != loader ? loader : ConfigurationResolver.class.getClassLoader());
+        if (null != resolver) {
+            resolver.dispose();
+        }
+    }
+
+    static void release(final ConfigurationResolver resolver) {
+        RESOLVERS.remove(resolver);
+        resolver.dispose();
+    }
+
+    /**
+     * Stops reloading and drops what refers to the classes of the application.
+     * Pending ConfigSource fetches are cancelled and the refresh of a last known good configuration is interrupted.
+     */
+    private void dispose() {
+        this.disposed = true;
+        stopReloading();
+
+        final Thread refresher = this.refresher;
+        if (null != refresher) {
+            refresher.interrupt();
+        }
+
+        final ConfigSources sources = this.sources;
+        if (null != sources) {
+            sources.close();
+        }
+        synchronized (this) {
+            this.sources = null;
+        }
+
+        this.plans.clear();
+        this.values.clear();
+        this.bindings.clear();
     }
 }
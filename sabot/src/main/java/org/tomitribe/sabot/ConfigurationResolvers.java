@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.tomitribe.sabot;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The ConfigurationResolver of each application, keyed by class loader.
+ *
+ * Lookups take no lock. Class loaders are held weakly, but a resolver usually references
+ * its application's classes (observers, injection points) so the application is expected to
+ * {@link #remove(ConfigurationResolver) release} its resolver when it is undeployed.
+ * Entries of collected class loaders are dropped on the next lookup.
+ */
+final class ConfigurationResolvers {
+
+    private final ConcurrentMap<Key, ConfigurationResolver> resolvers = new ConcurrentHashMap<Key, ConfigurationResolver>();
+    private final ReferenceQueue<ClassLoader> collected = new ReferenceQueue<ClassLoader>();
+
+    /**
+     * @param loader Class loader of the application
+     * @return The application's resolver, created on first use
+     */
+    ConfigurationResolver get(final ClassLoader loader) {
+        expunge();
+
+        final Key key = new Key(loader, null);
+
+        final ConfigurationResolver resolver = this.resolvers.get(key);
+        if (null != resolver) {
+            return resolver;
+        }
+
+        // Creating a resolver loads nothing, losing the race is cheap
+        final ConfigurationResolver created = new ConfigurationResolver(loader);
+        final ConfigurationResolver existing = this.resolvers.putIfAbsent(new Key(loader, this.collected), created);
+        return null != existing ? existing : created;
+    }
+
+    /**
+     * @return The resolver of the class loader, or null if there is none
+     */
+    ConfigurationResolver remove(final ClassLoader loader) {
+        expunge();
+        return this.resolvers.remove(new Key(loader, null));
+    }
+
+    /**
+     * @return true if the resolver was registered
+     */
+    boolean remove(final ConfigurationResolver resolver) {
+        expunge();
+
+        final Iterator<Map.Entry<Key, ConfigurationResolver>> iterator = this.resolvers.entrySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getValue() == resolver) {
+                iterator.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void expunge() {
+        Reference<? extends ClassLoader> reference;
+        while (null != (reference = this.collected.poll())) {
+            final ConfigurationResolver resolver = this.resolvers.remove(reference);
+            if (null != resolver) {
+                resolver.stopReloading();
+            }
+        }
+    }
+
+    /**
+     * Identity of a class loader, without keeping it from being collected
+     */
+    private static final class Key extends WeakReference<ClassLoader> {
+
+        private final int hash;
+
+        private Key(final ClassLoader loader, final ReferenceQueue<ClassLoader> queue) {
+            super(loader, queue);
+            this.hash = System.identityHashCode(loader);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(final Object object) {
+            if (this == object) {
+                return true;
+            }
+            if (!(object instanceof Key)) {
+                return false;
+            }
+
+            final ClassLoader loader = get();
+            return null != loader && loader == ((Key) object).get();
+        }
+    }
+}
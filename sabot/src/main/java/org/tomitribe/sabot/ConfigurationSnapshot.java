@@ -0,0 +1,441 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.tomitribe.sabot;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Immutable view of the resolved configuration published by the ConfigurationResolver.
+ *
+ * Keys and values are held in a compact open-addressing table (Fibonacci hashing, linear probing,
+ * load factor below 0.5) so lookups take no lock and allocate nothing. A new snapshot is built every time configuration is loaded.
+ *
+ * Values read as int, long, boolean or double are parsed once per snapshot into a cell kept
+ * next to the value, so the primitive accessors of the ConfigurationResolver do not allocate.
+ *
+ * A {@link #lazy(Map) lazy} snapshot reads the uninterpolated values in place instead, usually the layers
+ * of the properties files, and interpolates each key the first time it is looked up.
+ *
+ * The first {@link #subset(String)} sorts the keys, a namespace is then a binary search and a contiguous run of keys.
+ * Subsets and the values of bound groups are kept with the snapshot, a reload starts from a new one.
+ */
+class ConfigurationSnapshot {
+
+    static final ConfigurationSnapshot EMPTY = new ConfigurationSnapshot(Collections.emptyMap());
+
+    private final String[] keys;
+    private final String[] values;
+    private final int mask;
+    private final int shift;
+    private final int size;
+    private final ConcurrentMap<Class<?>, ConcurrentMap<String, Converted>> converted;
+
+    /**
+     * Parsed values by slot, allocated on first use. Cells are immutable so publishing them without a lock is safe,
+     * at worst two threads parse the same value.
+     */
+    private volatile Parsed[] parsed;
+
+    /**
+     * The keys in order, sorted on first use so keys sharing a prefix are next to each other
+     */
+    private volatile String[] sorted;
+    private final ConcurrentMap<String, Map<String, String>> subsets;
+    private final ConcurrentMap<List<Object>, Object[]> groups;
+
+    ConfigurationSnapshot(final Map<?, ?> properties) {
+
+        int bits = 1;
+        while ((1 << bits) < properties.size() * 2) {
+            bits++;
+        }
+
+        final int capacity = 1 << bits;
+        this.keys = new String[capacity];
+        this.values = new String[capacity];
+        this.mask = capacity - 1;
+        this.shift = 32 - bits;
+
+        int size = 0;
+        for (final Map.Entry<?, ?> entry : properties.entrySet()) {
+            final String key = String.valueOf(entry.getKey());
+
+            int index = index(key);
+            while (keys[index] != null && !keys[index].equals(key)) {
+                index = (index + 1) & mask;
+            }
+
+            if (keys[index] == null) {
+                keys[index] = key;
+                size++;
+            }
+
+            values[index] = String.valueOf(entry.getValue());
+        }
+
+        this.size = size;
+        this.converted = new ConcurrentHashMap<Class<?>, ConcurrentMap<String, Converted>>();
+        this.subsets = new ConcurrentHashMap<String, Map<String, String>>();
+        this.groups = new ConcurrentHashMap<List<Object>, Object[]>();
+    }
+
+    /**
+     * @param raw Uninterpolated configuration with String keys and values, not copied and not modified afterwards
+     * @return A snapshot interpolating each key on first lookup
+     */
+    @SuppressWarnings("unchecked")
+    static ConfigurationSnapshot lazy(final Map<?, ?> raw) {
+        return new Lazy((Map<String, String>) raw);
+    }
+
+    /**
+     * @param key Configuration key
+     * @return The value for the key or null if the key is not present
+     */
+    String get(final String key) {
+        final int slot = slot(key);
+        return slot < 0 ? null : values[slot];
+    }
+
+    /**
+     * @param key Configuration key
+     * @param primitive Type to parse the value as
+     * @return The parsed value or null if the key is not present
+     * @throws IllegalArgumentException if the value is not a valid value of the type
+     */
+    Parsed parse(final String key, final Primitive primitive) {
+        final int slot = slot(key);
+        if (slot < 0) {
+            return null;
+        }
+
+        Parsed[] parsed = this.parsed;
+        if (null == parsed) {
+            parsed = new Parsed[keys.length];
+            this.parsed = parsed;
+        }
+
+        Parsed cell = parsed[slot];
+        if (null == cell || cell.primitive != primitive) {
+            // The same key read as another type replaces the cell, which is unusual
+            cell = new Parsed(primitive, primitive.conversion.convert(key, values[slot]));
+            parsed[slot] = cell;
+        }
+        return cell;
+    }
+
+    private int slot(final String key) {
+        int index = index(key);
+
+        String candidate;
+        while ((candidate = keys[index]) != null) {
+            if (candidate.equals(key)) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+
+        return -1;
+    }
+
+    boolean containsKey(final String key) {
+        return get(key) != null;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param prefix Namespace such as 'db.pool', a trailing '.' is optional
+     * @return The keys under the prefix, without it, and their values. Sorted, unmodifiable and shared.
+     */
+    Map<String, String> subset(final String prefix) {
+        final Map<String, String> cached = subsets.get(prefix);
+        if (null != cached) {
+            return cached;
+        }
+
+        final String start = prefix.isEmpty() || prefix.endsWith(".") ? prefix : prefix + ".";
+
+        String[] sorted = this.sorted;
+        if (null == sorted) {
+            sorted = sortedKeys();
+            this.sorted = sorted;
+        }
+
+        final Map<String, String> subset = new TreeMap<String, String>();
+
+        // The first key at or after the prefix, then every key until one no longer starts with it
+        int index = Arrays.binarySearch(sorted, start);
+        for (index = index < 0 ? -index - 1 : index; index < sorted.length && sorted[index].startsWith(start); index++) {
+            subset.put(sorted[index].substring(start.length()), get(sorted[index]));
+        }
+
+        final Map<String, String> unmodifiable = Collections.unmodifiableMap(subset);
+        final Map<String, String> existing = subsets.putIfAbsent(prefix, unmodifiable);
+        return null != existing ? existing : unmodifiable;
+    }
+
+    String[] sortedKeys() {
+        final String[] sorted = new String[size];
+        int i = 0;
+        for (final String key : keys) {
+            if (null != key) {
+                sorted[i++] = key;
+            }
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * Binds a namespace once per snapshot, see {@link GroupBinding}
+     *
+     * @param prefix Namespace
+     * @param binding Binding of the target type
+     * @return The converted value of each field of the binding
+     */
+    Object[] group(final String prefix, final GroupBinding binding) {
+        final List<Object> site = Arrays.<Object>asList(prefix, binding);
+
+        final Object[] cached = groups.get(site);
+        if (null != cached) {
+            return cached;
+        }
+
+        final Object[] values = binding.convert(prefix, subset(prefix));
+        final Object[] existing = groups.putIfAbsent(site, values);
+        return null != existing ? existing : values;
+    }
+
+    /**
+     * @return A copy of every key and value, or null if values are only known once looked up
+     */
+    Map<String, String> toMap() {
+        final Map<String, String> map = new HashMap<String, String>(size * 2);
+        for (int i = 0; i < keys.length; i++) {
+            if (null != keys[i]) {
+                map.put(keys[i], values[i]);
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Converts the value resolved for a key, caching the result for immutable target types
+     *
+     * @param key Configuration key
+     * @param value Value resolved for the key, either from this snapshot or the default
+     * @param type Target type
+     * @return The converted value
+     */
+    Object convert(final String key, final String value, final Class<?> type) {
+        final Conversions.Conversion<?> conversion = Conversions.of(type);
+
+        if (!Conversions.isImmutable(type)) {
+            return conversion.convert(key, value);
+        }
+
+        ConcurrentMap<String, Converted> byKey = converted.get(type);
+        if (null == byKey) {
+            byKey = new ConcurrentHashMap<String, Converted>();
+            final ConcurrentMap<String, Converted> existing = converted.putIfAbsent(type, byKey);
+            if (null != existing) {
+                byKey = existing;
+            }
+        }
+
+        // The same key may be injected with different defaults, so the source value is checked too
+        final Converted cached = byKey.get(key);
+        if (null != cached && cached.source.equals(value)) {
+            return cached.value;
+        }
+
+        final Object result = conversion.convert(key, value);
+        byKey.put(key, new Converted(value, result));
+        return result;
+    }
+
+    private int index(final String key) {
+        // Sequential keys such as "pool.1", "pool.2" have clustered hash codes, spread them
+        return (key.hashCode() * 0x9E3779B9) >>> shift;
+    }
+
+    private static final class Lazy extends ConfigurationSnapshot {
+
+        private final Map<String, String> raw;
+        private final ConcurrentMap<String, String> resolved;
+        private final ConcurrentMap<String, Parsed> parsedByKey;
+
+        private Lazy(final Map<String, String> raw) {
+            super(Collections.emptyMap());
+
+            this.raw = raw;
+            this.resolved = new ConcurrentHashMap<String, String>();
+            this.parsedByKey = new ConcurrentHashMap<String, Parsed>();
+        }
+
+        @Override
+        String get(final String key) {
+            final String done = resolved.get(key);
+            if (null != done) {
+                return done;
+            }
+
+            final String value = Interpolation.resolve(raw, resolved, key);
+            if (null != value) {
+                ConfigurationAudit.entry(key, value);
+            }
+            return value;
+        }
+
+        @Override
+        Parsed parse(final String key, final Primitive primitive) {
+            final Parsed cell = parsedByKey.get(key);
+            if (null != cell && cell.primitive == primitive) {
+                return cell;
+            }
+
+            final String value = get(key);
+            if (null == value) {
+                return null;
+            }
+
+            final Parsed parsed = new Parsed(primitive, primitive.conversion.convert(key, value));
+            parsedByKey.put(key, parsed);
+            return parsed;
+        }
+
+        @Override
+        boolean containsKey(final String key) {
+            return raw.containsKey(key);
+        }
+
+        @Override
+        int size() {
+            return raw.size();
+        }
+
+        @Override
+        Map<String, String> toMap() {
+            return null;
+        }
+
+        @Override
+        String[] sortedKeys() {
+            final String[] sorted = raw.keySet().toArray(new String[raw.size()]);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+    }
+
+    /**
+     * Types with an allocation-free accessor on the ConfigurationResolver
+     */
+    enum Primitive {
+        INT(int.class),
+        LONG(long.class),
+        BOOLEAN(boolean.class),
+        DOUBLE(double.class);
+
+        private final Class<?> type;
+        private final Conversions.Conversion<?> conversion;
+
+        Primitive(final Class<?> type) {
+            this.type = type;
+            this.conversion = Conversions.of(type);
+        }
+
+        /**
+         * @param type Primitive or wrapper type
+         * @return The matching Primitive or null if the type has none
+         */
+        static Primitive of(final Class<?> type) {
+            for (final Primitive primitive : values()) {
+                if (primitive.type == type || primitive.conversion == Conversions.of(type)) {
+                    return primitive;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * A value parsed as a Primitive, both as the primitive and boxed
+     */
+    static final class Parsed {
+
+        private final Primitive primitive;
+        private final Object boxed;
+        private final long bits;
+
+        private Parsed(final Primitive primitive, final Object boxed) {
+            this.primitive = primitive;
+            this.boxed = boxed;
+
+            if (boxed instanceof Boolean) {
+                this.bits = (Boolean) boxed ? 1 : 0;
+            } else if (boxed instanceof Double) {
+                this.bits = Double.doubleToRawLongBits((Double) boxed);
+            } else {
+                this.bits = ((Number) boxed).longValue();
+            }
+        }
+
+        int asInt() {
+            return (int) bits;
+        }
+
+        long asLong() {
+            return bits;
+        }
+
+        boolean asBoolean() {
+            return bits != 0;
+        }
+
+        double asDouble() {
+            return Double.longBitsToDouble(bits);
+        }
+
+        /**
+         * @return The boxed value, the same instance every time
+         */
+        Object boxed() {
+            return boxed;
+        }
+    }
+
+    private static class Converted {
+
+        private final String source;
+        private final Object value;
+
+        private Converted(final String source, final Object value) {
+            this.source = source;
+            this.value = value;
+        }
+    }
+}
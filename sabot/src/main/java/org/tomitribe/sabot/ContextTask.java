@@ -0,0 +1,55 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.tomitribe.sabot;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Runs a task of an application on the shared sabot threads with the context class loader of the thread
+ * that submitted it, so ConfigurationResolver.get() within the task finds the resolver of that application.
+ * The loader is only set while the task runs, idle threads do not keep the application alive.
+ */
+final class ContextTask<T> implements Callable<T> {
+
+    private final Callable<T> task;
+    private final ClassLoader loader;
+
+    private ContextTask(final Callable<T> task, final ClassLoader loader) {
+        this.task = task;
+        this.loader = loader;
+    }
+
+    /**
+     * @param task Task to run
+     * @return The task bound to the context class loader of the current thread
+     */
+    static <T> Callable<T> of(final Callable<T> task) {
+        return new ContextTask<T>(task, Thread.currentThread().getContextClassLoader());
+    }
+
+    @Override
+    public T call() throws Exception {
+        final Thread thread = Thread.currentThread();
+        final ClassLoader previous = thread.getContextClassLoader();
+        thread.setContextClassLoader(loader);
+        try {
+            return task.call();
+        } finally {
+            thread.setContextClassLoader(previous);
+        }
+    }
+}
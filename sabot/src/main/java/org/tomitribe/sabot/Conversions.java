@@ -0,0 +1,258 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.tomitribe.sabot;
+
+import org.tomitribe.util.editor.Converter;
+import org.tomitribe.util.editor.Editors;
+
+import java.io.File;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Compiles the String-to-type conversion once per target type.
+ *
+ * The conversions give the same results as {@link Converter#convert(Object, Class, String)}:
+ * primitives and their wrappers follow the java.beans editors (e.g. Integer.decode),
+ * enums try the value as is, upper case and lower case, and other types use their String constructor
+ * unless a PropertyEditor is registered. Anything else is delegated to the Converter.
+ */
+enum Conversions {
+    ;
+
+    interface Conversion<T> {
+        T convert(final String key, final String value);
+    }
+
+    /**
+     * Each conversion is kept by its class, not by sabot, so it goes away with the class loader of an undeployed
+     * application along with the constructor or enum constants it refers to.
+     */
+    private static final ClassValue<Conversion<?>> CONVERSIONS = new ClassValue<Conversion<?>>() {
+        @Override
+        protected Conversion<?> computeValue(final Class<?> type) {
+            return compile(type);
+        }
+    };
+
+    /**
+     * Types whose converted values can safely be shared between injection points
+     */
+    private static final Set<Class<?>> IMMUTABLE = new HashSet<Class<?>>(Arrays.<Class<?>>asList(
+            String.class, Boolean.class, Byte.class, Short.class, Integer.class, Long.class,
+            Float.class, Double.class, Character.class, BigInteger.class, BigDecimal.class,
+            File.class, URI.class
+    ));
+
+    private static final Conversion<String> STRING = new Conversion<String>() {
+        @Override
+        public String convert(final String key, final String value) {
+            return value;
+        }
+    };
+
+    private static final Conversion<Boolean> BOOLEAN = new Conversion<Boolean>() {
+        @Override
+        public Boolean convert(final String key, final String value) {
+            if ("true".equalsIgnoreCase(value)) {
+                return Boolean.TRUE;
+            }
+            if ("false".equalsIgnoreCase(value)) {
+                return Boolean.FALSE;
+            }
+            throw new IllegalArgumentException(value);
+        }
+    };
+
+    private static final Conversion<Byte> BYTE = new Conversion<Byte>() {
+        @Override
+        public Byte convert(final String key, final String value) {
+            return Byte.decode(value);
+        }
+    };
+
+    private static final Conversion<Short> SHORT = new Conversion<Short>() {
+        @Override
+        public Short convert(final String key, final String value) {
+            return Short.decode(value);
+        }
+    };
+
+    private static final Conversion<Integer> INTEGER = new Conversion<Integer>() {
+        @Override
+        public Integer convert(final String key, final String value) {
+            return Integer.decode(value);
+        }
+    };
+
+    private static final Conversion<Long> LONG = new Conversion<Long>() {
+        @Override
+        public Long convert(final String key, final String value) {
+            return Long.decode(value);
+        }
+    };
+
+    private static final Conversion<Float> FLOAT = new Conversion<Float>() {
+        @Override
+        public Float convert(final String key, final String value) {
+            return Float.valueOf(value);
+        }
+    };
+
+    private static final Conversion<Double> DOUBLE = new Conversion<Double>() {
+        @Override
+        public Double convert(final String key, final String value) {
+            return Double.valueOf(value);
+        }
+    };
+
+    /**
+     * @param type Target type
+     * @return The compiled conversion for the type
+     */
+    static Conversion<?> of(final Class<?> type) {
+        return CONVERSIONS.get(type);
+    }
+
+    /**
+     * @param type Target type
+     * @return true if a converted value of this type can be cached and handed out more than once
+     */
+    static boolean isImmutable(final Class<?> type) {
+        return type.isPrimitive() || type.isEnum() || IMMUTABLE.contains(type);
+    }
+
+    private static Conversion<?> compile(final Class<?> type) {
+
+        if (type.isAssignableFrom(String.class)) {
+            return STRING;
+        }
+
+        final Class<?> boxed = box(type);
+
+        if (Boolean.class == boxed) {
+            return BOOLEAN;
+        } else if (Byte.class == boxed) {
+            return BYTE;
+        } else if (Short.class == boxed) {
+            return SHORT;
+        } else if (Integer.class == boxed) {
+            return INTEGER;
+        } else if (Long.class == boxed) {
+            return LONG;
+        } else if (Float.class == boxed) {
+            return FLOAT;
+        } else if (Double.class == boxed) {
+            return DOUBLE;
+        } else if (boxed.isEnum()) {
+            return enumConversion(boxed);
+        }
+
+        // A registered PropertyEditor takes precedence over the constructor in the Converter
+        if (null == Editors.get(boxed)) {
+            final Constructor<?> constructor = stringConstructor(boxed);
+            if (null != constructor) {
+                return constructorConversion(constructor);
+            }
+        }
+
+        return new Conversion<Object>() {
+            @Override
+            public Object convert(final String key, final String value) {
+                return Converter.convert(value, type, key);
+            }
+        };
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Conversion<?> enumConversion(final Class type) {
+        return new Conversion<Enum>() {
+            @Override
+            public Enum convert(final String key, final String value) {
+                try {
+                    return Enum.valueOf(type, value);
+                } catch (final IllegalArgumentException e) {
+                    try {
+                        return Enum.valueOf(type, value.toUpperCase());
+                    } catch (final IllegalArgumentException e1) {
+                        return Enum.valueOf(type, value.toLowerCase());
+                    }
+                }
+            }
+        };
+    }
+
+    private static Conversion<?> constructorConversion(final Constructor<?> constructor) {
+        return new Conversion<Object>() {
+            @Override
+            public Object convert(final String key, final String value) {
+                try {
+                    return constructor.newInstance(value);
+                } catch (final InvocationTargetException e) {
+                    throw new IllegalArgumentException(String.format("Cannot convert string '%s' to %s.", value, constructor.getDeclaringClass()), e.getCause());
+                } catch (final Exception e) {
+                    throw new IllegalArgumentException(String.format("Cannot convert string '%s' to %s.", value, constructor.getDeclaringClass()), e);
+                }
+            }
+        };
+    }
+
+    private static Constructor<?> stringConstructor(final Class<?> type) {
+        if (Modifier.isAbstract(type.getModifiers())) {
+            return null;
+        }
+
+        try {
+            return type.getConstructor(String.class);
+        } catch (final NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static Class<?> box(final Class<?> type) {
+        if (!type.isPrimitive()) {
+            return type;
+        }
+
+        if (boolean.class == type) {
+            return Boolean.class;
+        } else if (byte.class == type) {
+            return Byte.class;
+        } else if (short.class == type) {
+            return Short.class;
+        } else if (int.class == type) {
+            return Integer.class;
+        } else if (long.class == type) {
+            return Long.class;
+        } else if (float.class == type) {
+            return Float.class;
+        } else if (double.class == type) {
+            return Double.class;
+        } else if (char.class == type) {
+            return Character.class;
+        }
+
+        return type;
+    }
+}
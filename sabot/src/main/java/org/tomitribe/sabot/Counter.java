@@ -0,0 +1,72 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.tomitribe.sabot;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter spread over several cells so threads incrementing it at the same time do not
+ * all compete for a single value, the cell is picked from the thread id. Reading sums the cells.
+ */
+final class Counter {
+
+    private static final int STRIPES;
+
+    static {
+        int stripes = 1;
+        while (stripes < Runtime.getRuntime().availableProcessors() && stripes < 64) {
+            stripes <<= 1;
+        }
+        STRIPES = stripes;
+    }
+
+    /**
+     * Longs per 64 byte cache line
+     */
+    private static final int LINE = 8;
+
+    private final AtomicLongArray cells;
+    private final int mask;
+    private final int spacing;
+
+    /**
+     * @param padded Keep each cell on its own cache line, for counters every thread updates
+     */
+    Counter(final boolean padded) {
+        this.spacing = padded ? LINE : 1;
+        this.mask = STRIPES - 1;
+        this.cells = new AtomicLongArray(STRIPES * spacing);
+    }
+
+    void increment() {
+        cells.incrementAndGet(((int) Thread.currentThread().getId() & mask) * spacing);
+    }
+
+    long sum() {
+        long sum = 0;
+        for (int i = 0; i < cells.length(); i += spacing) {
+            sum += cells.get(i);
+        }
+        return sum;
+    }
+
+    void reset() {
+        for (int i = 0; i < cells.length(); i += spacing) {
+            cells.set(i, 0);
+        }
+    }
+}
@@ -18,10 +18,29 @@ package org.tomitribe.sabot;
 
 
 import javax.resource.ResourceException;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Reader;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -29,6 +48,44 @@ public enum Environments {
     ;
     private static final Logger LOGGER = Logger.getLogger(Environments.class.getName());
 
+    /**
+     * Properties files are ISO-8859-1, as read by Properties.load(InputStream)
+     */
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    /**
+     * Files at least this large are memory mapped. Small files are cheaper to stream and
+     * a mapped file can stay locked (on Windows) until the mapping is garbage collected.
+     */
+    private static final long MAP_THRESHOLD = 256 * 1024;
+
+    /**
+     * Parses the layers of an environment concurrently, the worker threads are daemon threads.
+     * Shared by every application, so workers do not inherit the context class loader of the one that started them,
+     * each layer is parsed with the context class loader of the application instead.
+     */
+    private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+        @Override
+        public ForkJoinWorkerThread newThread(final ForkJoinPool pool) {
+            final ForkJoinWorkerThread thread = new ForkJoinWorkerThread(pool) {
+            };
+            thread.setContextClassLoader(Environments.class.getClassLoader());
+            return thread;
+        }
+    }, null, false);
+
+    /**
+     * Resources looked up per class loader, misses included. Every miss scans the whole classpath,
+     * test.properties is probed on every load and is usually missing in production.
+     * Weak keys so an undeployed application's class loader can be collected.
+     */
+    private static final Map<ClassLoader, ConcurrentMap<String, Object>> RESOURCES = new WeakHashMap<ClassLoader, ConcurrentMap<String, Object>>();
+
+    /**
+     * Cached in place of a resource that was not found
+     */
+    private static final Object MISSING = new Object();
+
     /**
      * Combine the base properties with the environment properties specified by the parameter if found.
      * If not found then the method will return only the base properties object, but will log errors.
@@ -39,14 +96,27 @@ public enum Environments {
      */
     public static Properties getProperties(final String environments) throws ResourceException {
 
-        final Properties properties = new Properties();
+        // Process any {} variable references
+        return Interpolation.interpolate(merge(environments));
+    }
+
+    /**
+     * Loads the layers of an environment without interpolating them
+     *
+     * @param environments Single or comma separated list of environment properties to load
+     * @return The layers merged, later layers override earlier ones
+     * @throws ResourceException if an environment is not found
+     */
+    static LayeredProperties merge(final String environments) throws ResourceException {
+
+        final List<Layer> layers = new ArrayList<Layer>();
 
         // Always load the base.properties (optional but default)
-        loadBase(properties, "base");
+        addBase(layers, "base");
 
 
         // Always load the test.properties (optional but override if found)
-        loadBase(properties, "test");
+        addBase(layers, "test");
 
 
         if (null != environments) {
@@ -54,46 +124,171 @@ public enum Environments {
             for (final String env : environments.split(" *, *")) {
 
                 if (!"test".equals(env) && !"base".equals(env)) {
-                    properties.putAll(load(env));
+                    layers.add(new Layer(env, getRequiredResource(env), false));
                 }
             }
         }
 
-        // Process any {} variable references
-        return Interpolation.interpolate(properties);
+        final List<String> names = new ArrayList<String>(layers.size());
+        for (final Layer layer : layers) {
+            names.add(layer.name);
+        }
+
+        // Kept as separate layers rather than copied into one another
+        return new LayeredProperties(names, loadAll(layers));
+    }
+
+    /**
+     * Lists the properties files that make up the environment, in load order.
+     * Files that do not exist are not listed.
+     *
+     * @param environments Single or comma separated list of environment properties
+     * @return The URL of each properties file found
+     */
+    public static List<URL> getResources(final String environments) {
+        final List<URL> resources = new ArrayList<URL>();
+        for (final String name : getNames(environments)) {
+            final URL resource = getResource(name + ".properties");
+            if (null != resource) {
+                resources.add(resource);
+            }
+        }
+        return resources;
     }
 
-    private static void loadBase(final Properties properties, final String base) {
+    /**
+     * Lists the names of the properties files that make up the environment, in load order.
+     * Files that do not exist are not listed.
+     *
+     * @param environments Single or comma separated list of environment properties
+     * @return The name of each properties file found, without the '.properties' extension
+     */
+    static List<String> getLayerNames(final String environments) {
+        final List<String> layers = new ArrayList<String>();
+        for (final String name : getNames(environments)) {
+            if (null != getResource(name + ".properties")) {
+                layers.add(name);
+            }
+        }
+        return layers;
+    }
+
+    /**
+     * Lists the names of the properties files that may make up the environment, found or not
+     *
+     * @param environments Single or comma separated list of environment properties
+     * @return The file name of each layer, 'base.properties' and so on
+     */
+    static List<String> getFileNames(final String environments) {
+        final List<String> files = new ArrayList<String>();
+        for (final String name : getNames(environments)) {
+            files.add(name + ".properties");
+        }
+        return files;
+    }
+
+    private static List<String> getNames(final String environments) {
+        final List<String> names = new ArrayList<String>();
+        names.add("base");
+        names.add("test");
+
+        if (null != environments) {
+            for (final String env : environments.split(" *, *")) {
+
+                if (!names.contains(env)) {
+                    names.add(env);
+                }
+            }
+        }
+        return names;
+    }
+
+    private static void addBase(final List<Layer> layers, final String base) {
         final String resourceName = base + ".properties";
 
         final URL resource = getResource(resourceName);
         if (resource == null) {
             LOGGER.log(Level.FINE, "No " + resourceName + " found.");
         } else {
-            try {
-                properties.putAll(load(base));
-            } catch (final ResourceException e) {
-                LOGGER.log(Level.FINE, "The properties file '" + base + ".properties' was not found on the classpasth");
-            }
+            layers.add(new Layer(base, resource, true));
         }
     }
 
-    private static Properties load(final String value) throws ResourceException {
-        final Properties properties = new Properties();
+    private static URL getRequiredResource(final String value) throws ResourceException {
         final String resourceName = value + ".properties";
         final URL resource = getResource(resourceName);
 
         if (resource == null) {
-            throw new ResourceException("Unable to find '" + resourceName + "' on the classpath");
+            final String directory = System.getProperty(ConfigurationResolver.DIRECTORY);
+            throw new ResourceException("Unable to find '" + resourceName + "' " + (null == directory ? "on the classpath" : "in " + directory));
+        }
+
+        return resource;
+    }
+
+    /**
+     * Parses each layer, concurrently when there is more than one
+     *
+     * @return The parsed layers in the order given
+     */
+    private static List<Properties> loadAll(final List<Layer> layers) throws ResourceException {
+        final List<Properties> loaded = new ArrayList<Properties>(layers.size());
+
+        if (layers.size() < 2) {
+            for (final Layer layer : layers) {
+                loaded.add(layer.call());
+            }
+            return loaded;
+        }
+
+        final List<Future<Properties>> futures = new ArrayList<Future<Properties>>(layers.size());
+        for (final Layer layer : layers) {
+            futures.add(POOL.submit(ContextTask.of(layer)));
+        }
+
+        for (final Future<Properties> future : futures) {
+            try {
+                loaded.add(future.get());
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ResourceException("Interrupted while loading the environment", e);
+            } catch (final ExecutionException e) {
+                if (e.getCause() instanceof ResourceException) {
+                    throw (ResourceException) e.getCause();
+                }
+                throw new ResourceException("Failed to load the environment", e.getCause());
+            }
+        }
+
+        return loaded;
+    }
+
+    private static Properties load(final URL resource) throws ResourceException {
+        final Properties properties = new Properties();
+
+        try {
+            final File file = "file".equals(resource.getProtocol()) ? new File(resource.toURI()) : null;
+
+            if (null != file && file.length() >= MAP_THRESHOLD) {
+                properties.load(map(file));
+            } else {
+                load(resource, properties);
+            }
+        } catch (final IOException e) {
+            throw new ResourceException("Failed to load environment '" + resource.toExternalForm() + "'");
+        } catch (final URISyntaxException e) {
+            throw new ResourceException("Failed to load environment '" + resource.toExternalForm() + "'");
         }
 
+        return properties;
+    }
+
+    private static void load(final URL resource, final Properties properties) throws IOException {
         InputStream inputStream = null;
         try {
             inputStream = resource.openStream();
             properties.load(inputStream);
 
-        } catch (final IOException e) {
-            throw new ResourceException("Failed to load environment '" + resource.toExternalForm() + "'");
         } finally {
             if (null != inputStream) {
                 try {
@@ -103,12 +298,109 @@ public enum Environments {
                 }
             }
         }
-        return properties;
     }
 
-    private static URL getResource(final String resourceName) {
+    /**
+     * Memory maps the file and decodes it in bulk
+     */
+    private static Reader map(final File file) throws IOException {
+        final FileInputStream in = new FileInputStream(file);
+        try {
+            final FileChannel channel = in.getChannel();
+            return new CharBufferReader(ISO_8859_1.decode(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())));
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * One properties file of the environment
+     */
+    private static class Layer implements Callable<Properties> {
+
+        private final String name;
+        private final URL resource;
+        private final boolean optional;
+
+        private Layer(final String name, final URL resource, final boolean optional) {
+            this.name = name;
+            this.resource = resource;
+            this.optional = optional;
+        }
+
+        @Override
+        public Properties call() throws ResourceException {
+            try {
+                return load(resource);
+            } catch (final ResourceException e) {
+                if (!optional) {
+                    throw e;
+                }
+
+                LOGGER.log(Level.FINE, "The properties file '" + name + ".properties' could not be loaded");
+                return new Properties();
+            }
+        }
+    }
+
+    private static class CharBufferReader extends Reader {
+
+        private final CharBuffer buffer;
+
+        private CharBufferReader(final CharBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read(final char[] cbuf, final int off, final int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+
+            final int n = Math.min(len, buffer.remaining());
+            buffer.get(cbuf, off, n);
+            return n;
+        }
+
+        @Override
+        public void close() {
+            //no-op
+        }
+    }
+
+    /**
+     * Looks the resource up in the configuration directory when one is set, otherwise on the classpath
+     * of the context class loader. Classpath lookups are cached per class loader, including misses.
+     * When reloading, the lookups of the properties files created or deleted next to those watched are forgotten.
+     */
+    static URL getResource(final String resourceName) {
+        final String directory = System.getProperty(ConfigurationResolver.DIRECTORY);
+        if (null != directory) {
+            return getFile(new File(directory, resourceName));
+        }
+
         final ClassLoader loader = Thread.currentThread().getContextClassLoader();
 
+        ConcurrentMap<String, Object> resources;
+        synchronized (RESOURCES) {
+            resources = RESOURCES.get(loader);
+            if (null == resources) {
+                resources = new ConcurrentHashMap<String, Object>();
+                RESOURCES.put(loader, resources);
+            }
+        }
+
+        Object resource = resources.get(resourceName);
+        if (null == resource) {
+            final URL found = findResource(loader, resourceName);
+            resource = null != found ? found : MISSING;
+            resources.putIfAbsent(resourceName, resource);
+        }
+
+        return MISSING == resource ? null : (URL) resource;
+    }
+
+    private static URL findResource(final ClassLoader loader, final String resourceName) {
         final URL resource = loader.getResource(resourceName);
 
         if (resource != null) {
@@ -117,4 +409,47 @@ public enum Environments {
 
         return loader.getResource("/" + resourceName);
     }
-}
\ No newline at end of file
+
+    private static URL getFile(final File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+
+        try {
+            return file.toURI().toURL();
+        } catch (final MalformedURLException e) {
+            LOGGER.log(Level.WARNING, "Unable to read " + file.getAbsolutePath(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Forgets the cached lookup of a resource of a class loader, so the resource is found if it was added since
+     * or no longer found if it was removed
+     *
+     * @param loader Class loader the resource was looked up with
+     * @param resourceName Name of the resource
+     */
+    static void forget(final ClassLoader loader, final String resourceName) {
+        final ConcurrentMap<String, Object> resources;
+        synchronized (RESOURCES) {
+            resources = RESOURCES.get(loader);
+        }
+
+        if (null != resources) {
+            resources.remove(resourceName);
+        }
+    }
+
+    /**
+     * Forgets the cached resource lookups of a class loader, so resources added since are found.
+     * The lookups of the other applications are kept.
+     *
+     * @param loader Class loader the resources were looked up with
+     */
+    static void clearResources(final ClassLoader loader) {
+        synchronized (RESOURCES) {
+            RESOURCES.remove(loader);
+        }
+    }
+}
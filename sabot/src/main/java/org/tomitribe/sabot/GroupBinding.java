@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.tomitribe.sabot;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The fields of a class bound to the keys of a namespace, worked out once per class and application.
+ *
+ * Each field, static, final and transient ones aside, is bound to the key of the same name under the namespace,
+ * or to the key of its {@link Config} annotation, relative to the namespace, which may also give a default.
+ * A field whose key is missing and has no default keeps the value the class gives it.
+ * Values are converted the same way as for @Config injection points.
+ */
+final class GroupBinding {
+
+    /**
+     * Converted value of a field left as the class initializes it
+     */
+    private static final Object UNSET = new Object();
+
+    private final Constructor<?> constructor;
+    private final Field[] fields;
+    private final String[] keys;
+    private final String[] defaults;
+    private final Conversions.Conversion<?>[] conversions;
+
+    /**
+     * @param type Class to bind
+     * @throws IllegalStateException if the class has no no-argument constructor
+     */
+    GroupBinding(final Class<?> type) {
+        try {
+            this.constructor = type.getDeclaredConstructor();
+            this.constructor.setAccessible(true);
+        } catch (final NoSuchMethodException e) {
+            throw new IllegalStateException("Unable to bind configuration to " + type.getName() + ", it needs a no-argument constructor", e);
+        }
+
+        final List<Field> fields = new ArrayList<Field>();
+        for (Class<?> current = type; null != current && Object.class != current; current = current.getSuperclass()) {
+            for (final Field field : current.getDeclaredFields()) {
+                final int modifiers = field.getModifiers();
+                if (!Modifier.isStatic(modifiers) && !Modifier.isFinal(modifiers) && !Modifier.isTransient(modifiers) && !field.isSynthetic()) {
+                    field.setAccessible(true);
+                    fields.add(field);
+                }
+            }
+        }
+
+        this.fields = fields.toArray(new Field[fields.size()]);
+        this.keys = new String[this.fields.length];
+        this.defaults = new String[this.fields.length];
+        this.conversions = new Conversions.Conversion<?>[this.fields.length];
+
+        for (int i = 0; i < this.fields.length; i++) {
+            final Config config = this.fields[i].getAnnotation(Config.class);
+            this.keys[i] = null != config && !config.value().isEmpty() ? config.value() : this.fields[i].getName();
+            this.defaults[i] = null != config ? config.defaultValue() : "";
+            this.conversions[i] = Conversions.of(this.fields[i].getType());
+        }
+    }
+
+    /**
+     * @param prefix Namespace, for error messages
+     * @param subset Keys of the namespace, without the prefix
+     * @return The converted value of each field
+     */
+    Object[] convert(final String prefix, final Map<String, String> subset) {
+        final String start = prefix.isEmpty() || prefix.endsWith(".") ? prefix : prefix + ".";
+
+        final Object[] values = new Object[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            final String value = subset.get(keys[i]);
+
+            if (null != value) {
+                values[i] = conversions[i].convert(start + keys[i], value);
+            } else if (!defaults[i].isEmpty()) {
+                values[i] = conversions[i].convert(start + keys[i], defaults[i]);
+            } else {
+                values[i] = UNSET;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @param values Converted values, see {@link #convert(String, Map)}
+     * @return A new instance with its fields set
+     */
+    Object bind(final Object[] values) {
+        try {
+            final Object instance = constructor.newInstance();
+            for (int i = 0; i < fields.length; i++) {
+                if (UNSET != values[i]) {
+                    fields[i].set(instance, values[i]);
+                }
+            }
+            return instance;
+
+        } catch (final InstantiationException e) {
+            throw new IllegalStateException("Unable to create " + constructor.getDeclaringClass().getName(), e);
+        } catch (final IllegalAccessException e) {
+            throw new IllegalStateException("Unable to create " + constructor.getDeclaringClass().getName(), e);
+        } catch (final InvocationTargetException e) {
+            throw new IllegalStateException("Unable to create " + constructor.getDeclaringClass().getName(), e.getCause());
+        }
+    }
+}
@@ -16,60 +16,514 @@
  */
 package org.tomitribe.sabot;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
 
 public enum Interpolation {
     ;
-    private static final Pattern PATTERN = Pattern.compile("(\\$\\{)([\\w._-]+)(})");
+    private static final String PLACEHOLDER = "${";
 
+    /**
+     * Returns a copy of the properties with all ${key} references replaced by the referenced value.
+     * Each key is resolved once, after the keys it references, and memoized.
+     * References to unknown keys are left untouched.
+     *
+     * @param properties Properties to interpolate
+     * @return Interpolated copy of the properties
+     * @throws IllegalStateException if properties reference each other in a cycle
+     */
     public static Properties interpolate(final Properties properties) {
-        return _interpolate(copy(properties));
+        final Map<String, String> raw = new HashMap<String, String>();
+        for (final Map.Entry<Object, Object> entry : properties.entrySet()) {
+            raw.put(String.valueOf(entry.getKey()), String.valueOf(entry.getValue()));
+        }
+
+        return interpolate(raw);
     }
 
-    private static Properties copy(final Properties properties) {
-        final Properties copy = new Properties();
-        copy.putAll(properties);
-        return copy;
+    /**
+     * Interpolates without copying the raw values, which can be a {@link LayeredProperties} view.
+     *
+     * @param raw Uninterpolated values, not modified
+     * @return Interpolated properties
+     * @throws IllegalStateException if properties reference each other in a cycle
+     */
+    @SuppressWarnings("unchecked")
+    static Properties interpolate(final Map<String, String> raw) {
+        final Properties interpolated = new Properties();
+
+        // The result is the memo, every key is resolved into it
+        final Resolver resolver = new Resolver(raw, (Map) interpolated);
+        for (final String key : raw.keySet()) {
+            resolver.resolve(key);
+        }
+        return interpolated;
+    }
+
+    /**
+     * Interpolates a single key, resolving only the keys it references.
+     * Used to interpolate lazily, the memo can be shared by concurrent callers as resolution
+     * of a key always produces the same value.
+     *
+     * @param raw Uninterpolated values
+     * @param resolved Memo of the interpolated values, updated with every key resolved
+     * @param key Key to resolve
+     * @return The interpolated value or null if the key is not present
+     * @throws IllegalStateException if the key is part of a reference cycle
+     */
+    static String resolve(final Map<String, String> raw, final ConcurrentMap<String, String> resolved, final String key) {
+        final String done = resolved.get(key);
+        if (null != done || !raw.containsKey(key)) {
+            return done;
+        }
+
+        return new Resolver(raw, resolved).resolve(key);
     }
 
-    private static Properties _interpolate(final Properties interpolated) {
-        boolean interpolating = true;
-        while (interpolating) {
+    /**
+     * Interpolated configuration that keeps track of which keys reference which, so an update
+     * only recomputes the keys it affects, directly or through other keys, and reports the keys whose value changed.
+     * Not thread safe.
+     */
+    static final class Graph {
 
-            interpolating = false;
-            for (final Map.Entry<Object, Object> entry : interpolated.entrySet()) {
-                final String value = entry.getValue().toString();
+        private final Map<String, String> raw;
+        private final Map<String, String> resolved;
 
-                final String formatted = format(value, interpolated);
+        /**
+         * Keys referenced by each key, including keys that are not present
+         */
+        private final Map<String, Set<String>> references;
+
+        /**
+         * Keys referencing each key, the reverse of references
+         */
+        private final Map<String, Set<String>> dependents;
+
+        /**
+         * @param properties Uninterpolated properties
+         * @throws IllegalStateException if properties reference each other in a cycle
+         */
+        Graph(final Map<?, ?> properties) {
+            this.raw = new HashMap<String, String>(properties.size() * 2);
+            for (final Map.Entry<?, ?> entry : properties.entrySet()) {
+                this.raw.put(String.valueOf(entry.getKey()), String.valueOf(entry.getValue()));
+            }
+
+            this.resolved = new HashMap<String, String>(this.raw.size() * 2);
+            this.references = new HashMap<String, Set<String>>(this.raw.size() * 2);
+            this.dependents = new HashMap<String, Set<String>>();
+
+            final Resolver resolver = new Resolver(this.raw, this.resolved, this.references);
+            for (final String key : this.raw.keySet()) {
+                resolver.resolve(key);
+            }
+
+            for (final String key : this.references.keySet()) {
+                link(key);
+            }
+        }
 
-                if (!value.equals(formatted)) {
-                    interpolating = true;
-                    entry.setValue(formatted);
+        String get(final String key) {
+            return this.resolved.get(key);
+        }
+
+        int size() {
+            return this.resolved.size();
+        }
+
+        Properties toProperties() {
+            final Properties properties = new Properties();
+            properties.putAll(this.resolved);
+            return properties;
+        }
+
+        /**
+         * Replaces the whole configuration, recomputing only the keys affected by the differences
+         *
+         * @param properties New uninterpolated properties
+         * @return The keys whose interpolated value changed, added and removed keys included
+         * @throws IllegalStateException if the new properties contain a cycle, the graph is then left unchanged
+         */
+        Set<String> replace(final Map<?, ?> properties) {
+            final Map<String, String> changes = new HashMap<String, String>();
+
+            final Set<String> keys = new HashSet<String>();
+            for (final Map.Entry<?, ?> entry : properties.entrySet()) {
+                final String key = String.valueOf(entry.getKey());
+                final String value = String.valueOf(entry.getValue());
+                keys.add(key);
+
+                if (!value.equals(this.raw.get(key))) {
+                    changes.put(key, value);
                 }
             }
+
+            for (final String key : this.raw.keySet()) {
+                if (!keys.contains(key)) {
+                    changes.put(key, null);
+                }
+            }
+
+            return update(changes);
         }
 
-        return interpolated;
+        /**
+         * @param changes New uninterpolated values, a null value removes the key
+         * @return The keys whose interpolated value changed, added and removed keys included
+         * @throws IllegalStateException if the changes introduce a cycle, the graph is then left unchanged
+         */
+        Set<String> update(final Map<String, String> changes) {
+            final Set<String> affected = affected(changes.keySet());
+
+            // Kept to report the changes and to roll back
+            final Map<String, String> previousRaw = new HashMap<String, String>();
+            final Map<String, String> previousResolved = new HashMap<String, String>();
+            final Map<String, Set<String>> previousReferences = new HashMap<String, Set<String>>();
+            for (final String key : affected) {
+                previousRaw.put(key, this.raw.get(key));
+                previousResolved.put(key, this.resolved.get(key));
+                previousReferences.put(key, this.references.get(key));
+            }
+
+            for (final Map.Entry<String, String> change : changes.entrySet()) {
+                put(this.raw, change.getKey(), change.getValue());
+            }
+
+            for (final String key : affected) {
+                unlink(key);
+                this.resolved.remove(key);
+                this.references.remove(key);
+            }
+
+            try {
+                final Resolver resolver = new Resolver(this.raw, this.resolved, this.references);
+                for (final String key : affected) {
+                    if (this.raw.containsKey(key)) {
+                        resolver.resolve(key);
+                    }
+                }
+            } catch (final IllegalStateException e) {
+                for (final String key : affected) {
+                    put(this.raw, key, previousRaw.get(key));
+                    put(this.resolved, key, previousResolved.get(key));
+                    put(this.references, key, previousReferences.get(key));
+                    link(key);
+                }
+                throw e;
+            }
+
+            final Set<String> changed = new LinkedHashSet<String>();
+            for (final String key : affected) {
+                link(key);
+
+                final String previous = previousResolved.get(key);
+                final String current = this.resolved.get(key);
+                if (null == previous ? null != current : !previous.equals(current)) {
+                    changed.add(key);
+                }
+            }
+            return changed;
+        }
+
+        /**
+         * @return The keys and every key referencing them, directly or not
+         */
+        private Set<String> affected(final Set<String> keys) {
+            final Set<String> affected = new LinkedHashSet<String>();
+            final List<String> pending = new ArrayList<String>(keys);
+
+            while (!pending.isEmpty()) {
+                final String key = pending.remove(pending.size() - 1);
+                if (affected.add(key)) {
+                    final Set<String> dependents = this.dependents.get(key);
+                    if (null != dependents) {
+                        pending.addAll(dependents);
+                    }
+                }
+            }
+            return affected;
+        }
+
+        private void link(final String key) {
+            final Set<String> referenced = this.references.get(key);
+            if (null == referenced) {
+                return;
+            }
+
+            for (final String reference : referenced) {
+                Set<String> dependents = this.dependents.get(reference);
+                if (null == dependents) {
+                    dependents = new HashSet<String>();
+                    this.dependents.put(reference, dependents);
+                }
+                dependents.add(key);
+            }
+        }
+
+        private void unlink(final String key) {
+            final Set<String> referenced = this.references.get(key);
+            if (null == referenced) {
+                return;
+            }
+
+            for (final String reference : referenced) {
+                final Set<String> dependents = this.dependents.get(reference);
+                if (null != dependents) {
+                    dependents.remove(key);
+                    if (dependents.isEmpty()) {
+                        this.dependents.remove(reference);
+                    }
+                }
+            }
+        }
+
+        private static <V> void put(final Map<String, V> map, final String key, final V value) {
+            if (null == value) {
+                map.remove(key);
+            } else {
+                map.put(key, value);
+            }
+        }
     }
 
-    static String format(final String input, final Properties properties) {
-        final Matcher matcher = PATTERN.matcher(input);
-        final StringBuffer buf = new StringBuffer();
-        while (matcher.find()) {
-            final String key = matcher.group(2);
-            final Object value = properties.get(key);
-            if (value != null) {
-                try {
-                    matcher.appendReplacement(buf, value.toString());
-                } catch (final Exception e) {
-                    //Ignore
+    /**
+     * Depth-first resolution of the reference graph.
+     * The keys currently being resolved are kept in order so a cycle can be reported with its full path.
+     */
+    private static class Resolver {
+
+        private final Map<String, String> raw;
+        private final Map<String, String> resolved;
+        private final Map<String, Set<String>> references;
+        private final LinkedHashSet<String> path;
+        private final StringBuilder buf;
+
+        private Resolver(final Map<String, String> raw) {
+            this(raw, new HashMap<String, String>(raw.size() * 2), null);
+        }
+
+        private Resolver(final Map<String, String> raw, final Map<String, String> resolved) {
+            this(raw, resolved, null);
+        }
+
+        /**
+         * @param references If not null, receives the keys each resolved key references, known or not
+         */
+        private Resolver(final Map<String, String> raw, final Map<String, String> resolved, final Map<String, Set<String>> references) {
+            this.raw = raw;
+            this.resolved = resolved;
+            this.references = references;
+            this.path = new LinkedHashSet<String>();
+            this.buf = new StringBuilder();
+        }
+
+        /**
+         * Walks the references with an explicit stack of the keys being resolved,
+         * so a long chain of references is limited by memory rather than by the thread stack.
+         */
+        private String resolve(final String key) {
+            final String done = this.resolved.get(key);
+            if (null != done) {
+                return done;
+            }
+
+            final List<Step> stack = new ArrayList<Step>();
+            stack.add(start(key));
+
+            while (!stack.isEmpty()) {
+                final Step step = stack.get(stack.size() - 1);
+
+                final String next = next(step);
+                if (null != next) {
+                    stack.add(start(next));
+                    continue;
+                }
+
+                // Substitution may form a new reference, e.g. ${remote.${env}.host}, so repeat until settled
+                if (step.found) {
+                    final String formatted = format(step.value, this.resolved, this.buf);
+
+                    if (!formatted.equals(step.value)) {
+                        step.restart(formatted);
+                        continue;
+                    }
+                }
+
+                if (null != step.seen) {
+                    this.references.put(step.key, step.seen);
+                }
+
+                this.path.remove(step.key);
+                this.resolved.put(step.key, step.value);
+                stack.remove(stack.size() - 1);
+            }
+
+            return this.resolved.get(key);
+        }
+
+        private Step start(final String key) {
+            if (!this.path.add(key)) {
+                throw cycle(key);
+            }
+
+            return new Step(key, this.raw.get(key), null == this.references ? null : new HashSet<String>());
+        }
+
+        /**
+         * @return The next reference of the step that still has to be resolved, or null once they all are
+         */
+        private String next(final Step step) {
+            while (step.index < step.pending.size()) {
+                final String reference = step.pending.get(step.index++);
+                if (null != step.seen) {
+                    step.seen.add(reference);
+                }
+                if (this.raw.containsKey(reference)) {
+                    step.found = true;
+                    if (null == this.resolved.get(reference)) {
+                        return reference;
+                    }
+                }
+            }
+            return null;
+        }
+
+        private IllegalStateException cycle(final String key) {
+            final StringBuilder sb = new StringBuilder();
+            boolean inCycle = false;
+            for (final String step : this.path) {
+                inCycle = inCycle || step.equals(key);
+                if (inCycle) {
+                    sb.append(step).append(" -> ");
+                }
+            }
+            sb.append(key);
+
+            return new IllegalStateException("Cyclic property reference: " + sb);
+        }
+    }
+
+    /**
+     * A key being resolved and how far its references have been walked
+     */
+    private static class Step {
+
+        private final String key;
+        private final Set<String> seen;
+        private String value;
+        private List<String> pending;
+        private int index;
+        private boolean found;
+
+        private Step(final String key, final String value, final Set<String> seen) {
+            this.key = key;
+            this.seen = seen;
+            restart(value);
+        }
+
+        private void restart(final String value) {
+            this.value = value;
+            this.pending = references(value);
+            this.index = 0;
+            this.found = false;
+        }
+    }
+
+    static List<String> references(final String input) {
+        int start = input.indexOf(PLACEHOLDER);
+        if (start < 0) {
+            return Collections.emptyList();
+        }
+
+        final List<String> references = new ArrayList<String>();
+        while (start >= 0) {
+            final int end = end(input, start);
+            if (end > 0) {
+                references.add(input.substring(start + 2, end));
+            }
+            start = input.indexOf(PLACEHOLDER, start + 1);
+        }
+        return references;
+    }
+
+    static String format(final String input, final Map<String, String> properties) {
+        return format(input, properties, new StringBuilder());
+    }
+
+    /**
+     * Replaces each ${key} found in the properties with its value, copied literally.
+     * Input without a resolvable reference is returned as is.
+     *
+     * @param input Value to format
+     * @param properties Values to substitute
+     * @param buf Reusable buffer, its content is discarded
+     * @return The formatted value
+     */
+    static String format(final String input, final Map<String, String> properties, final StringBuilder buf) {
+        int start = input.indexOf(PLACEHOLDER);
+        if (start < 0) {
+            return input;
+        }
+
+        buf.setLength(0);
+        int copied = 0;
+
+        while (start >= 0) {
+            final int end = end(input, start);
+
+            if (end > 0) {
+                final String value = properties.get(input.substring(start + 2, end));
+
+                if (null != value) {
+                    buf.append(input, copied, start).append(value);
+                    copied = end + 1;
                 }
+
+                start = input.indexOf(PLACEHOLDER, end + 1);
+            } else {
+                start = input.indexOf(PLACEHOLDER, start + 1);
             }
         }
-        matcher.appendTail(buf);
+
+        if (copied == 0) {
+            return input;
+        }
+
+        buf.append(input, copied, input.length());
         return buf.toString();
     }
-}
\ No newline at end of file
+
+    /**
+     * @return The index of the '}' closing the placeholder opened at start, or -1 if this is not a placeholder
+     */
+    private static int end(final String input, final int start) {
+        final int length = input.length();
+
+        int i = start + 2;
+        while (i < length && isKeyChar(input.charAt(i))) {
+            i++;
+        }
+
+        if (i == start + 2 || i == length || input.charAt(i) != '}') {
+            return -1;
+        }
+
+        return i;
+    }
+
+    private static boolean isKeyChar(final char c) {
+        return (c >= 'a' && c <= 'z')
+                || (c >= 'A' && c <= 'Z')
+                || (c >= '0' && c <= '9')
+                || c == '_' || c == '.' || c == '-';
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.tomitribe.sabot;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * The last configuration an application loaded, observers and ConfigSources included, kept in a local file
+ * so the next start can serve it right away rather than wait for every source (see {@link ConfigurationResolver#LAST_KNOWN_GOOD}).
+ * Each application of the JVM has its own file in the directory, named after the URLs of its class loader.
+ * The layout is
+ *
+ * <pre>
+ * int    magic, version
+ * int    application length, then its chars
+ * int    environment length, then its chars
+ * int    entry count
+ * int    key length, key chars, value length, value chars, for each entry
+ * int    CRC32 of everything before
+ * </pre>
+ *
+ * The file is replaced in one move, a crash while writing leaves the previous one in place.
+ * A file that fails the checksum, or was written for another application or environment, is ignored.
+ *
+ * Values are saved as loaded, passwords included, as the application needs them to start.
+ * The file is only readable and writable by its owner where the file system has POSIX permissions.
+ */
+enum LastKnownGood {
+    ;
+    private static final Logger LOGGER = Logger.getLogger(LastKnownGood.class.getName());
+
+    private static final int MAGIC = 0x5341424C;
+    private static final int VERSION = 2;
+
+    private static final Set<PosixFilePermission> OWNER_ONLY = PosixFilePermissions.fromString("rw-------");
+
+    /**
+     * Saving sensitive values is reported once, then on each save at FINE
+     */
+    private static final AtomicBoolean REPORTED = new AtomicBoolean();
+
+    /**
+     * @param loader Class loader of the application
+     * @return What tells the application from the others of the JVM across restarts, the URLs of its class loader,
+     * or the class of the class loader when it has none
+     */
+    static String application(final ClassLoader loader) {
+        final StringBuilder application = new StringBuilder();
+
+        if (loader instanceof URLClassLoader) {
+            for (final URL url : ((URLClassLoader) loader).getURLs()) {
+                if (application.length() > 0) {
+                    application.append(' ');
+                }
+                application.append(url.toExternalForm());
+            }
+        }
+
+        return application.length() > 0 ? application.toString() : loader.getClass().getName();
+    }
+
+    /**
+     * @param directory Directory of the last known good configurations
+     * @param application Application, see {@link #application(ClassLoader)}
+     * @return The file of the application in the directory
+     */
+    static File file(final File directory, final String application) {
+        final CRC32 crc = new CRC32();
+        crc.update(application.getBytes(StandardCharsets.UTF_8));
+        return new File(directory, String.format("last-known-good-%08x", crc.getValue()));
+    }
+
+    /**
+     * Writes the configuration, failures are logged as the application can run without the file
+     *
+     * @param file File to replace
+     * @param application Application the configuration was loaded for
+     * @param environment Environment the configuration was loaded for
+     * @param entries Final configuration
+     */
+    static void write(final File file, final String application, final String environment, final Map<String, String> entries) {
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream data = new DataOutputStream(bytes);
+            data.writeInt(MAGIC);
+            data.writeInt(VERSION);
+            write(data, application);
+            write(data, environment);
+            data.writeInt(entries.size());
+            for (final Map.Entry<String, String> entry : entries.entrySet()) {
+                write(data, entry.getKey());
+                write(data, entry.getValue());
+            }
+
+            final CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            data.writeInt((int) crc.getValue());
+            data.flush();
+
+            final File directory = file.getAbsoluteFile().getParentFile();
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Unable to create " + directory);
+            }
+
+            final File temporary = createOwnerOnly(directory, file.getName());
+            try {
+                final OutputStream out = new FileOutputStream(temporary);
+                try {
+                    bytes.writeTo(out);
+                } finally {
+                    out.close();
+                }
+
+                try {
+                    Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (final AtomicMoveNotSupportedException e) {
+                    Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                temporary.delete();
+            }
+
+            LOGGER.fine("Configuration: " + entries.size() + " properties saved to " + file);
+
+            int sensitive = 0;
+            for (final String key : entries.keySet()) {
+                if (ConfigurationAudit.isSensitive(key)) {
+                    sensitive++;
+                }
+            }
+
+            if (sensitive > 0) {
+                LOGGER.log(REPORTED.compareAndSet(false, true) ? Level.INFO : Level.FINE, "Configuration: " + sensitive
+                        + " sensitive values, as matched by " + ConfigurationResolver.AUDIT_MASK + ", saved unmasked to " + file);
+            }
+
+        } catch (final IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to save the configuration to " + file, e);
+        }
+    }
+
+    /**
+     * Created with owner only permissions rather than changed afterwards, the values are never readable by others
+     */
+    private static File createOwnerOnly(final File directory, final String name) throws IOException {
+        try {
+            return Files.createTempFile(directory.toPath(), name, ".tmp", PosixFilePermissions.asFileAttribute(OWNER_ONLY)).toFile();
+        } catch (final UnsupportedOperationException e) {
+            // Not a POSIX file system, as restrictive as java.io.File allows
+            final File temporary = File.createTempFile(name, ".tmp", directory);
+            temporary.setReadable(false, false);
+            temporary.setWritable(false, false);
+            temporary.setReadable(true, true);
+            temporary.setWritable(true, true);
+            return temporary;
+        }
+    }
+
+    private static void write(final DataOutputStream data, final String string) throws IOException {
+        data.writeInt(string.length());
+        data.writeChars(string);
+    }
+
+    /**
+     * @param file File written by {@link #write(File, String, String, Map)}
+     * @param application Application being loaded
+     * @param environment Environment being loaded
+     * @return The saved configuration or null if there is no usable file
+     */
+    static Map<String, String> read(final File file, final String application, final String environment) {
+        if (!file.isFile()) {
+            LOGGER.fine("No " + file + " found.");
+            return null;
+        }
+
+        try {
+            final byte[] bytes = Files.readAllBytes(file.toPath());
+            if (bytes.length < 4) {
+                LOGGER.warning("Ignoring corrupt " + file);
+                return null;
+            }
+
+            final CRC32 crc = new CRC32();
+            crc.update(bytes, 0, bytes.length - 4);
+            final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+
+            if (buffer.getInt(bytes.length - 4) != (int) crc.getValue()) {
+                LOGGER.warning("Ignoring " + file + ", the checksum does not match");
+                return null;
+            }
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                LOGGER.warning("Ignoring " + file + ", not a configuration of this version");
+                return null;
+            }
+
+            // Two applications whose names share a file
+            final String owner = read(buffer);
+            if (!owner.equals(application)) {
+                LOGGER.info("Ignoring " + file + ", saved for application '" + owner + "'");
+                return null;
+            }
+
+            final String saved = read(buffer);
+            if (!saved.equals(environment)) {
+                LOGGER.info("Ignoring " + file + ", saved for environment '" + saved + "'");
+                return null;
+            }
+
+            final int count = buffer.getInt();
+            final Map<String, String> entries = new HashMap<String, String>(count * 2);
+            for (int i = 0; i < count; i++) {
+                entries.put(read(buffer), read(buffer));
+            }
+            return entries;
+
+        } catch (final IOException e) {
+            LOGGER.log(Level.WARNING, "Ignoring unreadable " + file, e);
+        } catch (final RuntimeException e) {
+            // Checksum collision on a truncated file, the buffer checks the bounds
+            LOGGER.log(Level.WARNING, "Ignoring corrupt " + file, e);
+        }
+
+        return null;
+    }
+
+    private static String read(final ByteBuffer buffer) {
+        final char[] chars = new char[buffer.getInt()];
+        buffer.asCharBuffer().get(chars);
+        buffer.position(buffer.position() + chars.length * 2);
+        return new String(chars);
+    }
+}
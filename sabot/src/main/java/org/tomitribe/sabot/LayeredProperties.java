@@ -0,0 +1,199 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.tomitribe.sabot;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * The layers of an environment (base, test, then each environment in order) merged without copying.
+ * Each layer is kept as loaded and a lookup walks them from the last, so a later layer overrides an earlier one.
+ * Records which layer supplied each value.
+ *
+ * Unmodifiable. Iteration visits each key once, with the value of the layer that supplies it.
+ */
+final class LayeredProperties extends AbstractMap<String, String> {
+
+    private final List<String> names;
+    private final List<Properties> layers;
+    private final EntrySet entries;
+
+    /**
+     * @param names Name of each layer, without the '.properties' extension
+     * @param layers The loaded layers, in the same order, not modified afterwards
+     */
+    LayeredProperties(final List<String> names, final List<Properties> layers) {
+        if (names.size() != layers.size()) {
+            throw new IllegalArgumentException("Expected " + names.size() + " layers, got " + layers.size());
+        }
+
+        this.names = Collections.unmodifiableList(new ArrayList<String>(names));
+        this.layers = new ArrayList<Properties>(layers);
+        this.entries = new EntrySet();
+    }
+
+    /**
+     * @return The name of each layer, in load order
+     */
+    List<String> getLayerNames() {
+        return this.names;
+    }
+
+    /**
+     * @param names Name of each additional layer
+     * @param layers Additional layers, overriding these ones, not modified afterwards
+     * @return The layers of this one followed by the additional ones, this one is unchanged
+     */
+    LayeredProperties plus(final List<String> names, final List<Properties> layers) {
+        final List<String> allNames = new ArrayList<String>(this.names);
+        allNames.addAll(names);
+
+        final List<Properties> allLayers = new ArrayList<Properties>(this.layers);
+        allLayers.addAll(layers);
+
+        return new LayeredProperties(allNames, allLayers);
+    }
+
+    /**
+     * @param key Configuration key
+     * @return The name of the layer supplying the value of the key, or null if the key is not present
+     */
+    String getLayer(final String key) {
+        final int layer = find(key);
+        return layer < 0 ? null : this.names.get(layer);
+    }
+
+    @Override
+    public String get(final Object key) {
+        final int layer = find(key);
+        return layer < 0 ? null : (String) this.layers.get(layer).get(key);
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        return find(key) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return this.entries.size();
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        return this.entries;
+    }
+
+    private int find(final Object key) {
+        for (int i = this.layers.size() - 1; i >= 0; i--) {
+            if (this.layers.get(i).containsKey(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return true if a layer after the given one also has the key
+     */
+    private boolean overridden(final Object key, final int layer) {
+        for (int i = layer + 1; i < this.layers.size(); i++) {
+            if (this.layers.get(i).containsKey(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private final class EntrySet extends AbstractSet<Entry<String, String>> {
+
+        /**
+         * Counted once, the layers do not change
+         */
+        private volatile int size = -1;
+
+        @Override
+        public Iterator<Entry<String, String>> iterator() {
+            return new Entries();
+        }
+
+        @Override
+        public int size() {
+            int size = this.size;
+            if (size < 0) {
+                size = 0;
+                for (int layer = 0; layer < layers.size(); layer++) {
+                    for (final Object key : layers.get(layer).keySet()) {
+                        if (!overridden(key, layer)) {
+                            size++;
+                        }
+                    }
+                }
+                this.size = size;
+            }
+            return size;
+        }
+    }
+
+    private final class Entries implements Iterator<Entry<String, String>> {
+
+        private int layer = layers.size();
+        private Iterator<Map.Entry<Object, Object>> current = Collections.<Map.Entry<Object, Object>>emptySet().iterator();
+        private Entry<String, String> next;
+
+        @Override
+        public boolean hasNext() {
+            while (null == this.next) {
+                if (this.current.hasNext()) {
+                    final Map.Entry<Object, Object> entry = this.current.next();
+                    if (!overridden(entry.getKey(), this.layer)) {
+                        this.next = new SimpleImmutableEntry<String, String>((String) entry.getKey(), (String) entry.getValue());
+                    }
+                } else if (this.layer > 0) {
+                    this.current = layers.get(--this.layer).entrySet().iterator();
+                } else {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public Entry<String, String> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            final Entry<String, String> entry = this.next;
+            this.next = null;
+            return entry;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
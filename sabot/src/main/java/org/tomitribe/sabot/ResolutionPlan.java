@@ -0,0 +1,195 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.tomitribe.sabot;
+
+import javax.enterprise.inject.spi.Annotated;
+import javax.enterprise.inject.spi.AnnotatedParameter;
+import javax.enterprise.inject.spi.InjectionPoint;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Arrays;
+
+/**
+ * Everything needed to inject a @Config injection point, worked out once:
+ * the key, the default, the target type and its conversion.
+ *
+ * The last converted value is kept together with the snapshot it came from,
+ * so repeated injections only pay for a volatile read until the configuration is reloaded.
+ * For ConfigValue injection points the plan simply hands out the shared handle.
+ * int, long, boolean and double values, primitive or boxed, are parsed by the snapshot
+ * and the boxed value is shared with every other injection point and accessor reading the key.
+ */
+class ResolutionPlan {
+
+    private final String key;
+    private final String defaultValue;
+    private final Conversions.Conversion<?> conversion;
+    private final ConfigurationSnapshot.Primitive primitive;
+    private final boolean cacheable;
+    private final ConfigValue<?> handle;
+
+    private volatile Resolved resolved;
+
+    ResolutionPlan(final String key, final String defaultValue, final Class<?> type) {
+        this(key, defaultValue, type, null);
+    }
+
+    private ResolutionPlan(final String key, final String defaultValue, final Class<?> type, final ConfigValue<?> handle) {
+        this.key = key;
+        this.defaultValue = defaultValue;
+        this.conversion = Conversions.of(type);
+        this.primitive = ConfigurationSnapshot.Primitive.of(type);
+        this.cacheable = Conversions.isImmutable(type);
+        this.handle = handle;
+    }
+
+    /**
+     * Returns the plan registered with the resolver for this injection point, compiling it if needed
+     *
+     * @param resolver ConfigurationResolver
+     * @param injectionPoint InjectionPoint
+     * @return The ResolutionPlan for the injection point
+     */
+    static ResolutionPlan of(final ConfigurationResolver resolver, final InjectionPoint injectionPoint) {
+        final Object site = site(injectionPoint);
+
+        if (null == site) {
+            return compile(resolver, injectionPoint);
+        }
+
+        final ResolutionPlan plan = resolver.getPlan(site);
+        if (null != plan) {
+            return plan;
+        }
+
+        return resolver.addPlan(site, compile(resolver, injectionPoint));
+    }
+
+    private static ResolutionPlan compile(final ConfigurationResolver resolver, final InjectionPoint injectionPoint) {
+        final Annotated annotated = injectionPoint.getAnnotated();
+        final Config annotation = annotated.getAnnotation(Config.class);
+        final Type type = annotated.getBaseType();
+
+        if (ConfigValue.class == type) {
+            return handle(resolver, annotation, String.class);
+        }
+
+        if (type instanceof ParameterizedType && ConfigValue.class == ((ParameterizedType) type).getRawType()) {
+            final Type argument = ((ParameterizedType) type).getActualTypeArguments()[0];
+
+            if (!(argument instanceof Class)) {
+                throw new IllegalStateException("Unsupported ConfigValue type " + type + " for config " + annotation.value());
+            }
+
+            return handle(resolver, annotation, (Class<?>) argument);
+        }
+
+        return new ResolutionPlan(annotation.value(), annotation.defaultValue(), (Class<?>) type);
+    }
+
+    private static ResolutionPlan handle(final ConfigurationResolver resolver, final Config annotation, final Class<?> type) {
+        final ConfigValue<?> handle = resolver.getConfigValue(annotation.value(), annotation.defaultValue(), type);
+        return new ResolutionPlan(annotation.value(), annotation.defaultValue(), type, handle);
+    }
+
+    /**
+     * @param injectionPoint InjectionPoint
+     * @return A key identifying the injection point across injections, or null if it has no member
+     */
+    private static Object site(final InjectionPoint injectionPoint) {
+        final Annotated annotated = injectionPoint.getAnnotated();
+
+        if (null == injectionPoint.getMember()) {
+            return null;
+        }
+
+        if (annotated instanceof AnnotatedParameter) {
+            return Arrays.asList(injectionPoint.getMember(), ((AnnotatedParameter<?>) annotated).getPosition());
+        }
+
+        return injectionPoint.getMember();
+    }
+
+    Object resolve(final ConfigurationResolver resolver) {
+        final ConfigurationMetrics metrics = resolver.metrics();
+        if (null != metrics) {
+            metrics.lookup(key);
+        }
+
+        if (null != handle) {
+            return handle;
+        }
+
+        final ConfigurationSnapshot snapshot = resolver.snapshot();
+
+        final Resolved resolved = this.resolved;
+        if (null != resolved && resolved.snapshot == snapshot) {
+            if (null != metrics && resolved.defaulted) {
+                metrics.defaulted(key);
+            }
+            return resolved.value;
+        }
+
+        final String value = snapshot.get(key);
+        if (null == value && defaultValue.isEmpty()) {
+            if (null != metrics) {
+                metrics.missing();
+            }
+            throw new IllegalStateException(String.format(
+                    "Unable to resolve configuration %s for environment '%s'.",
+                    key, resolver.getEnvironment()));
+        }
+
+        if (null != metrics && null == value) {
+            metrics.defaulted(key);
+        }
+
+        final Object converted;
+        try {
+            if (null != value && null != primitive) {
+                // Parsed once per snapshot and shared with the resolver's primitive accessors
+                converted = snapshot.parse(key, primitive).boxed();
+            } else {
+                converted = conversion.convert(key, null != value ? value : defaultValue);
+            }
+        } catch (final RuntimeException e) {
+            if (null != metrics) {
+                metrics.conversionFailed();
+            }
+            throw e;
+        }
+
+        if (cacheable) {
+            this.resolved = new Resolved(snapshot, converted, null == value);
+        }
+
+        return converted;
+    }
+
+    private static class Resolved {
+
+        private final ConfigurationSnapshot snapshot;
+        private final Object value;
+        private final boolean defaulted;
+
+        private Resolved(final ConfigurationSnapshot snapshot, final Object value, final boolean defaulted) {
+            this.snapshot = snapshot;
+            this.value = value;
+            this.defaulted = defaulted;
+        }
+    }
+}
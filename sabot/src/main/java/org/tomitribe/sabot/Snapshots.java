@@ -0,0 +1,257 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.tomitribe.sabot;
+
+import org.tomitribe.util.IO;
+
+import javax.resource.ResourceException;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Precompiled environment configuration, written at build time (see the sabot-maven-plugin)
+ * and read instead of parsing and interpolating the properties files at startup.
+ *
+ * The snapshot of an environment is the classpath resource 'META-INF/sabot/[environment].snapshot',
+ * 'META-INF/sabot/default.snapshot' when no environment is set. The binary layout is
+ *
+ * <pre>
+ * int    magic, version
+ * int    layer count, entry count, string table length (in chars)
+ * int[]  CRC32 of each layer's properties file
+ * int[]  index, offset and length of each layer name, then of each key and value
+ * char[] string table
+ * </pre>
+ *
+ * Values are stored interpolated. The names and checksums of the layers the snapshot was built from are recorded,
+ * a snapshot is ignored when the properties files on the classpath are not the same set, for example when
+ * a test.properties is present, or when one of them was edited since. It is also ignored when the properties
+ * files are read from a directory ({@link ConfigurationResolver#DIRECTORY}).
+ */
+public enum Snapshots {
+    ;
+    private static final Logger LOGGER = Logger.getLogger(Snapshots.class.getName());
+
+    private static final int MAGIC = 0x5341424F;
+    private static final int VERSION = 2;
+    private static final String DIRECTORY = "META-INF/sabot/";
+
+    /**
+     * @param environments Single or comma separated list of environment properties, or null
+     * @return The classpath resource name of the environment's snapshot
+     */
+    public static String getResourceName(final String environments) {
+        if (null == environments || environments.trim().isEmpty()) {
+            return DIRECTORY + "default.snapshot";
+        }
+
+        final StringBuilder name = new StringBuilder(DIRECTORY);
+        for (final String env : environments.trim().split(" *, *")) {
+            if (name.length() > DIRECTORY.length()) {
+                name.append(',');
+            }
+            name.append(env);
+        }
+        return name.append(".snapshot").toString();
+    }
+
+    /**
+     * Loads the environment from the properties files of the context class loader and writes its snapshot
+     *
+     * @param environments Single or comma separated list of environment properties, or null
+     * @param out Stream the snapshot is written to, not closed
+     * @throws ResourceException if an environment is not found
+     * @throws IOException if the snapshot can not be written
+     */
+    public static void write(final String environments, final OutputStream out) throws ResourceException, IOException {
+        final List<String> layers = Environments.getLayerNames(environments);
+        final List<URL> resources = Environments.getResources(environments);
+        final Properties properties = Environments.getProperties(environments);
+
+        // Sorted so the same configuration always produces the same file
+        final Map<String, String> entries = new TreeMap<String, String>();
+        for (final Map.Entry<Object, Object> entry : properties.entrySet()) {
+            entries.put(String.valueOf(entry.getKey()), String.valueOf(entry.getValue()));
+        }
+
+        final StringBuilder table = new StringBuilder();
+        final Map<String, Integer> offsets = new HashMap<String, Integer>();
+        final List<Integer> index = new ArrayList<Integer>();
+
+        for (final String layer : layers) {
+            add(layer, table, offsets, index);
+        }
+        for (final Map.Entry<String, String> entry : entries.entrySet()) {
+            add(entry.getKey(), table, offsets, index);
+            add(entry.getValue(), table, offsets, index);
+        }
+
+        final DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(layers.size());
+        data.writeInt(entries.size());
+        data.writeInt(table.length());
+        for (final URL resource : resources) {
+            data.writeInt(checksum(resource));
+        }
+        for (final Integer value : index) {
+            data.writeInt(value);
+        }
+        data.writeChars(table.toString());
+        data.flush();
+    }
+
+    private static void add(final String string, final StringBuilder table, final Map<String, Integer> offsets, final List<Integer> index) {
+        // Repeated values (ports, hosts, flags) are stored once
+        Integer offset = offsets.get(string);
+        if (null == offset) {
+            offset = table.length();
+            offsets.put(string, offset);
+            table.append(string);
+        }
+
+        index.add(offset);
+        index.add(string.length());
+    }
+
+    /**
+     * Reads the snapshot of an environment if one is on the classpath
+     *
+     * @param environments Single or comma separated list of environment properties, or null
+     * @return The snapshot's properties or null if there is no usable snapshot
+     */
+    static Properties read(final String environments) {
+        if (null != System.getProperty(ConfigurationResolver.DIRECTORY)) {
+            LOGGER.fine("Not using a snapshot, the properties files are read from " + System.getProperty(ConfigurationResolver.DIRECTORY));
+            return null;
+        }
+
+        final String name = getResourceName(environments);
+        final URL resource = Environments.getResource(name);
+
+        if (null == resource) {
+            LOGGER.fine("No " + name + " found.");
+            return null;
+        }
+
+        try {
+            final ByteBuffer buffer = map(resource);
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                LOGGER.warning("Ignoring " + resource.toExternalForm() + ", not a snapshot of this version");
+                return null;
+            }
+
+            final int layerCount = buffer.getInt();
+            final int entryCount = buffer.getInt();
+            final int tableLength = buffer.getInt();
+
+            final int[] checksums = new int[layerCount];
+            buffer.asIntBuffer().get(checksums);
+            buffer.position(buffer.position() + checksums.length * 4);
+
+            final int[] index = new int[(layerCount + entryCount * 2) * 2];
+            buffer.asIntBuffer().get(index);
+            buffer.position(buffer.position() + index.length * 4);
+
+            final char[] table = new char[tableLength];
+            buffer.asCharBuffer().get(table);
+
+            final List<String> layers = new ArrayList<String>(layerCount);
+            for (int i = 0; i < layerCount; i++) {
+                layers.add(new String(table, index[i * 2], index[i * 2 + 1]));
+            }
+
+            final List<String> expected = Environments.getLayerNames(environments);
+            if (!layers.equals(expected)) {
+                LOGGER.warning("Ignoring " + resource.toExternalForm() + ", built from " + layers + " but found " + expected);
+                return null;
+            }
+
+            final List<URL> sources = Environments.getResources(environments);
+            for (int i = 0; i < layerCount; i++) {
+                if (checksum(sources.get(i)) != checksums[i]) {
+                    LOGGER.warning("Ignoring " + resource.toExternalForm() + ", " + sources.get(i).toExternalForm() + " changed since it was built");
+                    return null;
+                }
+            }
+
+            final Properties properties = new Properties();
+            for (int i = layerCount * 2; i < index.length; i += 4) {
+                properties.put(new String(table, index[i], index[i + 1]), new String(table, index[i + 2], index[i + 3]));
+            }
+
+            LOGGER.info("Configuration: " + properties.size() + " properties from " + resource.toExternalForm());
+            return properties;
+
+        } catch (final IOException e) {
+            LOGGER.log(Level.WARNING, "Ignoring unreadable " + resource.toExternalForm(), e);
+        } catch (final RuntimeException e) {
+            // Truncated or corrupt, the buffers and String constructor check the bounds
+            LOGGER.log(Level.WARNING, "Ignoring corrupt " + resource.toExternalForm(), e);
+        }
+
+        return null;
+    }
+
+    /**
+     * Reading the file is far cheaper than parsing and interpolating it, and unlike a modification time
+     * the checksum is the same wherever the file is unpacked
+     */
+    private static int checksum(final URL resource) throws IOException {
+        final CRC32 crc = new CRC32();
+        crc.update(IO.readBytes(resource));
+        return (int) crc.getValue();
+    }
+
+    private static ByteBuffer map(final URL resource) throws IOException {
+        if ("file".equals(resource.getProtocol())) {
+            try {
+                final FileInputStream in = new FileInputStream(new File(resource.toURI()));
+                try {
+                    final FileChannel channel = in.getChannel();
+                    return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                } finally {
+                    in.close();
+                }
+            } catch (final URISyntaxException e) {
+                // Fall through and read it as a stream
+            }
+        }
+
+        // Inside an archive
+        return ByteBuffer.wrap(IO.readBytes(resource));
+    }
+}
@@ -0,0 +1,382 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.tomitribe.sabot;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.tomitribe.util.Files;
+import org.tomitribe.util.IO;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ConfigSourcesTest {
+
+    private HttpServer server;
+    private URL url;
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile String body = "remote.host = remote.supertribe.org\n";
+    private volatile int status = 200;
+    private volatile CountDownLatch answer = new CountDownLatch(0);
+
+    @Before
+    public void start() throws Exception {
+        // Stands in for a remote configuration service
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/config", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                try {
+                    answer.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+
+                final byte[] bytes = body.getBytes("ISO-8859-1");
+                exchange.sendResponseHeaders(status, bytes.length);
+                final OutputStream out = exchange.getResponseBody();
+                try {
+                    out.write(bytes);
+                } finally {
+                    out.close();
+                }
+            }
+        });
+        server.start();
+
+        url = new URL("http://localhost:" + server.getAddress().getPort() + "/config");
+    }
+
+    @After
+    public void stop() {
+        answer.countDown();
+        server.stop(0);
+        System.clearProperty(HttpSource.URL);
+    }
+
+    @Test
+    public void ordinals() throws Exception {
+        final ConfigSources sources = new ConfigSources(Arrays.asList(
+                new MapSource("high", 200, "remote.port", "3443"),
+                new MapSource("low", 100, "remote.port", "2443", "remote.username", "low")),
+                5000, 60000);
+
+        final LayeredProperties layered = sources.layer(Environments.merge(null));
+
+        assertEquals(Arrays.asList("base", "test", "low", "high"), layered.getLayerNames());
+        assertEquals("3443", layered.get("remote.port"));
+        assertEquals("high", layered.getLayer("remote.port"));
+        assertEquals("low", layered.get("remote.username"));
+        assertEquals("base", layered.getLayer("cipher"));
+    }
+
+    @Test
+    public void cached() throws Exception {
+        final ConfigSources sources = new ConfigSources(Collections.singletonList(new HttpSource("http", 100, url)), 5000, 60000);
+
+        assertEquals("remote.supertribe.org", sources.layer(Environments.merge(null)).get("remote.host"));
+        assertEquals("remote.supertribe.org", sources.layer(Environments.merge(null)).get("remote.host"));
+        assertEquals(1, requests.get());
+
+        // Expired right away
+        final ConfigSources expiring = new ConfigSources(Collections.singletonList(new HttpSource("http", 100, url)), 5000, 0);
+        expiring.layer(Environments.merge(null));
+        body = "remote.host = changed.supertribe.org\n";
+        assertEquals("changed.supertribe.org", expiring.layer(Environments.merge(null)).get("remote.host"));
+        assertEquals(3, requests.get());
+    }
+
+    @Test(timeout = 10000)
+    public void timeout() throws Exception {
+        final CountDownLatch late = new CountDownLatch(1);
+        final ConfigSources sources = new ConfigSources(Collections.singletonList(new HttpSource("http", 100, url)), 100, 60000, new Runnable() {
+            @Override
+            public void run() {
+                late.countDown();
+            }
+        });
+        answer = new CountDownLatch(1);
+
+        // The load goes on without the source
+        final LayeredProperties layered = sources.layer(Environments.merge(null));
+        assertNull(layered.get("remote.host"));
+        assertEquals(Arrays.asList("base", "test", "http"), layered.getLayerNames());
+
+        // The fetch that timed out completes in the background, says so and serves the next load
+        answer.countDown();
+        assertTrue(late.await(5, TimeUnit.SECONDS));
+        assertEquals("remote.supertribe.org", sources.layer(Environments.merge(null)).get("remote.host"));
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void failure() throws Exception {
+        final ConfigSources sources = new ConfigSources(Collections.singletonList(new HttpSource("http", 100, url)), 5000, 0);
+        assertEquals("remote.supertribe.org", sources.layer(Environments.merge(null)).get("remote.host"));
+
+        // Unavailable, its last values are kept
+        status = 503;
+        assertEquals("remote.supertribe.org", sources.layer(Environments.merge(null)).get("remote.host"));
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void perKey() throws Exception {
+        final Map<String, String> remote = new HashMap<String, String>();
+        remote.put("remote.username", "perkey");
+        remote.put("unknown.key", "ignored");
+
+        final ConfigSource source = new MapSource("keys", 100) {
+            @Override
+            public Map<String, String> loadAll() {
+                return null;
+            }
+
+            @Override
+            public String get(final String key) {
+                return remote.get(key);
+            }
+        };
+
+        final LayeredProperties layered = new ConfigSources(Collections.singletonList(source), 5000, 60000).layer(Environments.merge(null));
+        assertEquals("perkey", layered.get("remote.username"));
+        assertEquals("keys", layered.getLayer("remote.username"));
+        assertNull(layered.get("unknown.key"));
+    }
+
+    @Test
+    public void resolver() throws Exception {
+        final ConfigurationResolver resolver = withSource(new Resolution() {
+            @Override
+            public void run(final ConfigurationResolver resolver) {
+                // Interpolated with the properties files
+                assertEquals("https://remote.supertribe.org:1443/remote/service/url", resolver.resolve("remote.target.url", ""));
+                assertEquals("joecool", resolver.resolve("remote.username", ""));
+                assertTrue(resolver.isResolvableConfig("remote.host", ""));
+            }
+        });
+        resolver.stopReloading();
+    }
+
+    @Test(timeout = 10000)
+    public void lateAnswer() throws Exception {
+        System.setProperty(ConfigurationResolver.SOURCE_TIMEOUT, "100");
+        answer = new CountDownLatch(1);
+        try {
+            withSource(new Resolution() {
+                @Override
+                public void run(final ConfigurationResolver resolver) throws Exception {
+                    assertEquals("", resolver.resolve("remote.host", ""));
+
+                    // Loaded again once the source answers, without reloading enabled
+                    answer.countDown();
+                    while (!"remote.supertribe.org".equals(resolver.resolve("remote.host", ""))) {
+                        Thread.sleep(10);
+                    }
+                    assertEquals(1, requests.get());
+                }
+            });
+        } finally {
+            System.clearProperty(ConfigurationResolver.SOURCE_TIMEOUT);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void releasedLateAnswer() throws Exception {
+        System.setProperty(ConfigurationResolver.SOURCE_TIMEOUT, "100");
+        answer = new CountDownLatch(1);
+        try {
+            withSource(new Resolution() {
+                @Override
+                public void run(final ConfigurationResolver resolver) throws Exception {
+                    assertEquals("", resolver.resolve("remote.host", ""));
+
+                    // The application is gone, its configuration is not loaded again when the source answers
+                    ConfigurationResolver.release(resolver);
+                    answer.countDown();
+                    Thread.sleep(500);
+                    assertEquals("", resolver.resolve("remote.host", ""));
+                }
+            });
+        } finally {
+            System.clearProperty(ConfigurationResolver.SOURCE_TIMEOUT);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void refresh() throws Exception {
+        System.setProperty(ConfigurationResolver.RELOAD, "true");
+        System.setProperty(ConfigurationResolver.SOURCE_TTL, "100");
+        try {
+            final ConfigurationResolver resolver = withSource(new Resolution() {
+                @Override
+                public void run(final ConfigurationResolver resolver) throws Exception {
+                    assertEquals("remote.supertribe.org", resolver.resolve("remote.host", ""));
+
+                    // Reloaded once the source's values expire, without any file changing
+                    body = "remote.host = changed.supertribe.org\n";
+                    while (!"changed.supertribe.org".equals(resolver.resolve("remote.host", ""))) {
+                        Thread.sleep(10);
+                    }
+                    assertEquals("https://changed.supertribe.org:1443/remote/service/url", resolver.resolve("remote.target.url", ""));
+                }
+            });
+            resolver.stopReloading();
+        } finally {
+            System.clearProperty(ConfigurationResolver.RELOAD);
+            System.clearProperty(ConfigurationResolver.SOURCE_TTL);
+        }
+    }
+
+    /**
+     * Runs with the HttpSource listed in META-INF/services of the context class loader
+     */
+    private ConfigurationResolver withSource(final Resolution resolution) throws Exception {
+        final File dir = Files.tmpdir();
+        final Thread thread = Thread.currentThread();
+        final ClassLoader loader = thread.getContextClassLoader();
+        try {
+            final File services = new File(dir, "META-INF/services/" + ConfigSource.class.getName());
+            Files.mkdirs(services.getParentFile());
+            IO.writeString(services, HttpSource.class.getName() + "\n");
+            System.setProperty(HttpSource.URL, url.toExternalForm());
+
+            thread.setContextClassLoader(new URLClassLoader(new URL[]{dir.toURI().toURL()}, loader));
+            final ConfigurationResolver resolver = new ConfigurationResolver();
+            resolution.run(resolver);
+            return resolver;
+        } finally {
+            thread.setContextClassLoader(loader);
+            Files.remove(dir);
+        }
+    }
+
+    private interface Resolution {
+        void run(final ConfigurationResolver resolver) throws Exception;
+    }
+
+    /**
+     * Reads a properties file over HTTP
+     */
+    public static class HttpSource implements ConfigSource {
+
+        static final String URL = "org.tomitribe.sabot.test.source.url";
+
+        private final String name;
+        private final int ordinal;
+        private final URL url;
+
+        public HttpSource() throws IOException {
+            this("http", 100, new URL(System.getProperty(URL)));
+        }
+
+        private HttpSource(final String name, final int ordinal, final URL url) {
+            this.name = name;
+            this.ordinal = ordinal;
+            this.url = url;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public int getOrdinal() {
+            return ordinal;
+        }
+
+        @Override
+        public Map<String, String> loadAll() throws IOException {
+            final Properties properties = new Properties();
+            final InputStream in = url.openStream();
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+
+            final Map<String, String> values = new HashMap<String, String>();
+            for (final String key : properties.stringPropertyNames()) {
+                values.put(key, properties.getProperty(key));
+            }
+            return values;
+        }
+
+        @Override
+        public String get(final String key) {
+            return null;
+        }
+    }
+
+    private static class MapSource implements ConfigSource {
+
+        private final String name;
+        private final int ordinal;
+        private final Map<String, String> values = new HashMap<String, String>();
+
+        private MapSource(final String name, final int ordinal, final String... pairs) {
+            this.name = name;
+            this.ordinal = ordinal;
+            for (int i = 0; i < pairs.length; i += 2) {
+                values.put(pairs[i], pairs[i + 1]);
+            }
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public int getOrdinal() {
+            return ordinal;
+        }
+
+        @Override
+        public Map<String, String> loadAll() {
+            return values;
+        }
+
+        @Override
+        public String get(final String key) {
+            return values.get(key);
+        }
+    }
+}
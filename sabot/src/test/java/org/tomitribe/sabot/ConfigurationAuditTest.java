@@ -0,0 +1,181 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.tomitribe.sabot;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConfigurationAuditTest {
+
+    private final List<String> messages = new ArrayList<String>();
+    private final Logger logger = Logger.getLogger(ConfigurationAudit.class.getName());
+    private final Handler handler = new Handler() {
+        @Override
+        public void publish(final LogRecord record) {
+            synchronized (messages) {
+                messages.add(record.getMessage());
+            }
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    @Before
+    public void setUp() {
+        System.clearProperty(ConfigurationResolver.ENVIRONMENT);
+        logger.addHandler(handler);
+    }
+
+    @After
+    public void tearDown() {
+        logger.removeHandler(handler);
+        System.clearProperty(ConfigurationResolver.AUDIT);
+        System.clearProperty(ConfigurationResolver.AUDIT_MASK);
+    }
+
+    @Test
+    public void verbosity() {
+        assertEquals(ConfigurationAudit.Verbosity.SUMMARY, ConfigurationAudit.getVerbosity());
+
+        System.setProperty(ConfigurationResolver.AUDIT, "Entries");
+        assertEquals(ConfigurationAudit.Verbosity.ENTRIES, ConfigurationAudit.getVerbosity());
+
+        System.setProperty(ConfigurationResolver.AUDIT, "loud");
+        assertEquals(ConfigurationAudit.Verbosity.SUMMARY, ConfigurationAudit.getVerbosity());
+    }
+
+    @Test
+    public void mask() {
+        assertEquals("******", ConfigurationAudit.mask("remote.password", "NjAq6q2agYVnvSMz+eYUZg=="));
+        assertEquals("******", ConfigurationAudit.mask("oauth.Client.SECRET", "s3cr3t"));
+        assertEquals("joecool", ConfigurationAudit.mask("remote.username", "joecool"));
+
+        System.setProperty(ConfigurationResolver.AUDIT_MASK, "username, pin");
+        assertEquals("******", ConfigurationAudit.mask("remote.username", "joecool"));
+        assertEquals("******", ConfigurationAudit.mask("card.PIN", "1234"));
+        assertFalse(ConfigurationAudit.isSensitive("remote.password"));
+
+        System.setProperty(ConfigurationResolver.AUDIT_MASK, "");
+        assertFalse(ConfigurationAudit.isSensitive("remote.password"));
+    }
+
+    @Test
+    public void summary() {
+        new ConfigurationResolver().resolve("remote.port", "");
+
+        assertEquals(1, messages.size());
+        assertTrue(messages.get(0), messages.get(0).startsWith("Configuration for environment 'base': "));
+        assertTrue(messages.get(0), messages.get(0).contains("from [base, test]"));
+
+        System.setProperty(ConfigurationResolver.AUDIT, "none");
+        new ConfigurationResolver().resolve("remote.port", "");
+        assertEquals(1, messages.size());
+    }
+
+    @Test
+    public void entries() throws Exception {
+        System.setProperty(ConfigurationResolver.AUDIT, "entries");
+
+        new ConfigurationResolver().resolve("remote.port", "");
+        ConfigurationAudit.override("remote.password", "old", "new");
+
+        // Written by the audit thread, with the properties file that supplied the value
+        assertTrue(await("Configuration: remote.port = `1443` (base)"));
+        assertTrue(await("Configuration: remote.password = `******` (base)"));
+        assertTrue(await("Override config remote.password from `******` to `******`"));
+    }
+
+    @Test
+    public void observed() throws Exception {
+        System.setProperty(ConfigurationResolver.AUDIT, "entries");
+
+        final ConfigurationResolver resolver = new ConfigurationResolver();
+        resolver.register(new ConfigurationObserver() {
+            @Override
+            public void mergeConfiguration(final Properties properties) {
+                properties.setProperty("remote.host", "remotedb002.supertribe.org");
+            }
+        }, 0);
+        resolver.register(new ConfigurationDeltaObserver() {
+            @Override
+            public Map<String, String> delta(final Map<String, String> resolved) {
+                final Map<String, String> delta = new HashMap<String, String>();
+                delta.put("remote.port", "1443");
+                delta.put("remote.username", "snoopy");
+                return delta;
+            }
+        }, 1);
+        resolver.resolve("remote.port", "");
+
+        // Credited to the observer that set them, rather than to the properties file they override
+        assertTrue(await("Configuration: remote.username = `snoopy` (observer)"));
+        assertTrue(await("Configuration: remote.host = `remotedb002.supertribe.org` (observer)"));
+        assertTrue(await("Configuration: remote.port = `1443` (base)"));
+
+        // Setting a key to the value it has is not an override
+        assertTrue(await("Override config remote.username from `joecool` to `snoopy`"));
+        synchronized (messages) {
+            for (final String message : messages) {
+                assertFalse(message, message.startsWith("Override config remote.port"));
+            }
+        }
+    }
+
+    @Test
+    public void configValue() {
+        final ConfigValue<String> password = new ConfigValue<String>("remote.password", "", String.class);
+        password.set("NjAq6q2agYVnvSMz+eYUZg==");
+        assertEquals("ConfigValue{key='remote.password', value=******}", password.toString());
+
+        final ConfigValue<String> username = new ConfigValue<String>("remote.username", "", String.class);
+        username.set("joecool");
+        assertEquals("ConfigValue{key='remote.username', value=joecool}", username.toString());
+    }
+
+    private boolean await(final String message) throws InterruptedException {
+        final long timeout = System.currentTimeMillis() + 10000;
+        while (System.currentTimeMillis() < timeout) {
+            synchronized (messages) {
+                if (messages.contains(message)) {
+                    return true;
+                }
+            }
+            Thread.sleep(10);
+        }
+        return false;
+    }
+}
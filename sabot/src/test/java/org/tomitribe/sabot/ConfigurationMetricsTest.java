@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.tomitribe.sabot;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConfigurationMetricsTest {
+
+    private ConfigurationResolver resolver;
+    private ConfigurationMetrics metrics;
+
+    @Before
+    public void setUp() {
+        System.clearProperty(ConfigurationResolver.ENVIRONMENT);
+        System.setProperty(ConfigurationResolver.METRICS, "true");
+
+        resolver = new ConfigurationResolver();
+        metrics = resolver.metrics();
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty(ConfigurationResolver.METRICS);
+    }
+
+    @Test
+    public void disabled() {
+        System.clearProperty(ConfigurationResolver.METRICS);
+        assertNull(new ConfigurationResolver().metrics());
+    }
+
+    @Test
+    public void lookups() {
+        assertEquals("1443", resolver.resolve("remote.port", ""));
+        assertEquals(1443, resolver.resolve("remote.port", "", Integer.class));
+        assertEquals("fallback", resolver.resolve("not.configured", "fallback"));
+
+        final ResolutionPlan plan = new ResolutionPlan("not.configured", "42", Integer.class);
+        assertEquals(42, plan.resolve(resolver));
+        // Cached, still counted
+        assertEquals(42, plan.resolve(resolver));
+
+        assertEquals(5, metrics.getLookups());
+        assertEquals(3, metrics.getDefaults());
+        assertEquals(0.6, metrics.getDefaultRate(), 0.001);
+        assertEquals(Long.valueOf(2), metrics.getLookupsByKey().get("remote.port"));
+        assertEquals(Long.valueOf(3), metrics.getDefaultsByKey().get("not.configured"));
+        assertNull(metrics.getDefaultsByKey().get("remote.port"));
+
+        assertEquals("base", metrics.getEnvironment());
+        assertEquals(1, metrics.getLoads());
+        assertTrue(metrics.getLastLoadMicros() >= metrics.getLastInterpolationMicros());
+
+        metrics.reset();
+        assertEquals(0, metrics.getLookups());
+        assertTrue(metrics.getLookupsByKey().isEmpty());
+    }
+
+    @Test
+    public void failures() {
+        try {
+            new ResolutionPlan("not.configured", "", String.class).resolve(resolver);
+            fail("not configured and no default");
+        } catch (final IllegalStateException e) {
+            // expected
+        }
+
+        try {
+            new ResolutionPlan("remote.username", "", Integer.class).resolve(resolver);
+            fail("not a number");
+        } catch (final RuntimeException e) {
+            // expected
+        }
+
+        try {
+            resolver.resolve("remote.username", "", Integer.class);
+            fail("not a number");
+        } catch (final RuntimeException e) {
+            // expected
+        }
+
+        assertEquals(3, metrics.getLookups());
+        assertEquals(1, metrics.getMisses());
+        assertEquals(2, metrics.getConversionFailures());
+    }
+
+    @Test
+    public void mxbean() throws Exception {
+        resolver.resolve("remote.port", "");
+
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName("org.tomitribe.sabot:type=ConfigurationMetrics,environment=test");
+        server.registerMBean(metrics, name);
+        try {
+            assertEquals(1L, server.getAttribute(name, "Lookups"));
+
+            final TabularData byKey = (TabularData) server.getAttribute(name, "LookupsByKey");
+            assertEquals(1L, byKey.get(new Object[]{"remote.port"}).get("value"));
+
+            server.invoke(name, "reset", null, null);
+            assertEquals(0L, server.getAttribute(name, "Lookups"));
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.tomitribe.sabot;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConfigurationObserversTest {
+
+    @Test
+    public void priorities() {
+        final List<String> calls = new ArrayList<String>();
+        final ConfigurationObservers observers = new ConfigurationObservers();
+
+        observers.register(recording(calls, "b"), false, 10);
+        observers.register(recording(calls, "a"), false, -5);
+        observers.register(recording(calls, "c"), false, 10);
+        observers.register(recording(calls, "default"), false, 0);
+
+        observers.apply(new Properties());
+        assertEquals("[a, default, b, c]", calls.toString());
+    }
+
+    @Test
+    public void registry() {
+        final ConfigurationObservers observers = new ConfigurationObservers();
+        final ConfigurationDeltaObserver observer = delta("key", "value");
+
+        assertTrue(observers.register(observer, true, 0));
+        assertFalse(observers.register(observer, true, 5));
+
+        final Properties properties = new Properties();
+        observers.apply(properties);
+        assertEquals("value", properties.getProperty("key"));
+
+        assertTrue(observers.deregister(observer));
+        assertFalse(observers.deregister(observer));
+
+        final Properties empty = new Properties();
+        observers.apply(empty);
+        assertTrue(empty.isEmpty());
+    }
+
+    @Test
+    public void deltas() {
+        final ConfigurationObservers observers = new ConfigurationObservers();
+
+        observers.register(delta("remote.port", "3443"), true, 2);
+        observers.register(delta("remote.port", "2443"), true, 1);
+        observers.register(delta("remote.host", null), true, 1);
+        observers.register(new ConfigurationObserver() {
+            @Override
+            public void mergeConfiguration(final Properties resolved) {
+                // Sees the deltas of the lower priorities
+                resolved.setProperty("remote.url", resolved.getProperty("remote.port") + "/" + resolved.getProperty("remote.host"));
+            }
+        }, false, 3);
+
+        final Properties properties = new Properties();
+        properties.setProperty("remote.port", "1443");
+        properties.setProperty("remote.host", "localhost");
+
+        observers.apply(properties);
+
+        assertEquals("3443", properties.getProperty("remote.port"));
+        assertNull(properties.getProperty("remote.host"));
+        assertEquals("3443/null", properties.getProperty("remote.url"));
+    }
+
+    @Test
+    public void parallel() {
+        final CountDownLatch latch = new CountDownLatch(2);
+        final ConfigurationObservers observers = new ConfigurationObservers();
+
+        for (final String key : new String[]{"first", "second"}) {
+            observers.register(new ConfigurationDeltaObserver() {
+                @Override
+                public Map<String, String> delta(final Map<String, String> resolved) {
+                    // Only completes if the other observer runs at the same time
+                    latch.countDown();
+                    try {
+                        return Collections.singletonMap(key, String.valueOf(latch.await(10, TimeUnit.SECONDS)));
+                    } catch (final InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            }, true, 0);
+        }
+
+        final Properties properties = new Properties();
+        observers.apply(properties);
+
+        assertEquals("true", properties.getProperty("first"));
+        assertEquals("true", properties.getProperty("second"));
+    }
+
+    @Test
+    public void observing() throws Exception {
+        final ConfigurationObservers observers = new ConfigurationObservers();
+        for (final String key : new String[]{"first", "second"}) {
+            observers.register(new ConfigurationDeltaObserver() {
+                @Override
+                public Map<String, String> delta(final Map<String, String> resolved) {
+                    return Collections.singletonMap(key, String.valueOf(ConfigurationObservers.isObserving()));
+                }
+            }, true, 0);
+        }
+
+        final Properties properties = new Properties();
+        observers.apply(properties);
+        assertEquals("true", properties.getProperty("first"));
+        assertEquals("true", properties.getProperty("second"));
+
+        // Other work on the same threads, a ConfigSource fetch, waits for the configuration as any caller
+        assertFalse(ConfigurationObservers.isObserving());
+        assertFalse(ConfigurationObservers.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return ConfigurationObservers.isObserving();
+            }
+        }).get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void failure() {
+        final ConfigurationObservers observers = new ConfigurationObservers();
+        observers.register(delta("key", "value"), true, 0);
+        observers.register(new ConfigurationDeltaObserver() {
+            @Override
+            public Map<String, String> delta(final Map<String, String> resolved) {
+                throw new IllegalArgumentException("remote configuration unavailable");
+            }
+        }, true, 0);
+
+        try {
+            observers.apply(new Properties());
+            fail("the observer failed");
+        } catch (final IllegalArgumentException e) {
+            assertEquals("remote configuration unavailable", e.getMessage());
+        }
+    }
+
+    @Test
+    public void resolver() {
+        System.clearProperty(ConfigurationResolver.ENVIRONMENT);
+
+        final ConfigurationResolver resolver = new ConfigurationResolver();
+        resolver.register(delta("remote.username", "janecool"), 0);
+
+        assertEquals("janecool", resolver.resolve("remote.username", ""));
+    }
+
+    private static ConfigurationObserver recording(final List<String> calls, final String name) {
+        return new ConfigurationObserver() {
+            @Override
+            public void mergeConfiguration(final Properties resolved) {
+                calls.add(name);
+            }
+        };
+    }
+
+    private static ConfigurationDeltaObserver delta(final String key, final String value) {
+        return new ConfigurationDeltaObserver() {
+            @Override
+            public Map<String, String> delta(final Map<String, String> resolved) {
+                final Map<String, String> delta = new HashMap<String, String>();
+                delta.put(key, value);
+                return delta;
+            }
+        };
+    }
+}
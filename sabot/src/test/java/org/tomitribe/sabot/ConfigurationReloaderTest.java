@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.tomitribe.sabot;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.tomitribe.util.Files;
+import org.tomitribe.util.IO;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ConfigurationReloaderTest {
+
+    private ClassLoader loader;
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        System.clearProperty(ConfigurationResolver.ENVIRONMENT);
+        System.setProperty(ConfigurationResolver.RELOAD, "true");
+        System.setProperty(ConfigurationResolver.RELOAD_DELAY, "50");
+
+        dir = Files.tmpdir();
+        IO.writeString(new File(dir, "base.properties"), "remote.port = 1443\nremote.url = https://localhost:${remote.port}\n");
+
+        loader = Thread.currentThread().getContextClassLoader();
+        Thread.currentThread().setContextClassLoader(new URLClassLoader(new URL[]{dir.toURI().toURL()}, null));
+    }
+
+    @After
+    public void tearDown() {
+        Thread.currentThread().setContextClassLoader(loader);
+        System.clearProperty(ConfigurationResolver.RELOAD);
+        System.clearProperty(ConfigurationResolver.RELOAD_DELAY);
+        Files.remove(dir);
+    }
+
+    @Test
+    public void reload() throws Exception {
+        final ConfigurationResolver resolver = new ConfigurationResolver();
+        try {
+            assertEquals("https://localhost:1443", resolver.resolve("remote.url", ""));
+
+            final ConfigValue<Integer> port = resolver.getConfigValue("remote.port", "", Integer.class);
+            assertEquals(1443, port.get().intValue());
+            assertSame(port, resolver.getConfigValue("remote.port", "", Integer.class));
+
+            IO.writeString(new File(dir, "base.properties"), "remote.port = 2443\nremote.url = https://localhost:${remote.port}\n");
+
+            assertEquals("https://localhost:2443", await(resolver, "remote.url", "https://localhost:2443"));
+            assertEquals(2443, port.get().intValue());
+        } finally {
+            resolver.stopReloading();
+        }
+    }
+
+    @Test
+    public void createdLayer() throws Exception {
+        final ConfigurationResolver resolver = new ConfigurationResolver();
+        try {
+            // test.properties was looked up and found missing
+            assertEquals("https://localhost:1443", resolver.resolve("remote.url", ""));
+
+            IO.writeString(new File(dir, "test.properties"), "remote.port = 2443\n");
+            assertEquals("https://localhost:2443", await(resolver, "remote.url", "https://localhost:2443"));
+
+            // And no longer found once deleted
+            assertTrue(new File(dir, "test.properties").delete());
+            assertEquals("https://localhost:1443", await(resolver, "remote.url", "https://localhost:1443"));
+        } finally {
+            resolver.stopReloading();
+        }
+    }
+
+    @Test
+    public void keepCurrentOnFailure() throws Exception {
+        final ConfigurationResolver resolver = new ConfigurationResolver();
+        try {
+            assertEquals("1443", resolver.resolve("remote.port", ""));
+
+            // A cycle can not be interpolated, the current configuration must stay in place
+            IO.writeString(new File(dir, "base.properties"), "remote.port = ${remote.url}\nremote.url = ${remote.port}\n");
+            Thread.sleep(500);
+            assertEquals("1443", resolver.resolve("remote.port", ""));
+
+            // A value a ConfigValue can not convert is rejected as a whole too
+            final ConfigValue<Integer> port = resolver.getConfigValue("remote.port", "", Integer.class);
+            IO.writeString(new File(dir, "base.properties"), "remote.port = not a port\n");
+            Thread.sleep(500);
+            assertEquals("1443", resolver.resolve("remote.port", ""));
+            assertEquals(1443, port.get().intValue());
+
+            IO.writeString(new File(dir, "base.properties"), "remote.port = 3443\n");
+            assertEquals("3443", await(resolver, "remote.port", "3443"));
+            assertEquals(3443, port.get().intValue());
+        } finally {
+            resolver.stopReloading();
+        }
+    }
+
+    private static String await(final ConfigurationResolver resolver, final String key, final String expected) throws InterruptedException {
+        final long timeout = System.currentTimeMillis() + 10000;
+
+        String value = resolver.resolve(key, "");
+        while (!expected.equals(value) && System.currentTimeMillis() < timeout) {
+            Thread.sleep(20);
+            value = resolver.resolve(key, "");
+        }
+        return value;
+    }
+}
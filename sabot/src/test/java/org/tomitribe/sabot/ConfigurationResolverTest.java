@@ -18,9 +18,37 @@ package org.tomitribe.sabot;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.tomitribe.util.Files;
+import org.tomitribe.util.IO;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -110,4 +138,426 @@ public class ConfigurationResolverTest {
         assertEquals("blabla", resolver.resolve("bla", "blabla"));
     }
 
+    @Test
+    public void resolutionPlan() {
+        final ResolutionPlan port = new ResolutionPlan("remote.port", "0", Integer.class);
+        assertEquals(1443, port.resolve(resolver));
+        assertSame(port.resolve(resolver), port.resolve(resolver));
+
+        assertEquals("defaultString", new ResolutionPlan("defaultString.value", "defaultString", String.class).resolve(resolver));
+
+        try {
+            new ResolutionPlan("something", "", String.class).resolve(resolver);
+            fail("a missing key without default is not resolvable");
+        } catch (final IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void primitives() {
+        assertEquals(1443, resolver.getInt("remote.port", 0));
+        assertEquals(1443L, resolver.getLong("remote.port", 0));
+        assertEquals(1443.0, resolver.getDouble("remote.port", 0), 0);
+        assertEquals(42, resolver.getInt("something", 42));
+        assertTrue(resolver.getBoolean("something", true));
+
+        try {
+            resolver.getInt("remote.username", 0);
+            fail("joecool is not an int");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+
+        // Injection points share the value parsed for the accessors
+        final ResolutionPlan port = new ResolutionPlan("remote.port", "0", int.class);
+        assertSame(port.resolve(resolver), new ResolutionPlan("remote.port", "0", Integer.class).resolve(resolver));
+        assertEquals(7, new ResolutionPlan("something", "7", int.class).resolve(resolver));
+    }
+
+    @Test
+    public void bind() {
+        final Remote remote = resolver.bind("remote", Remote.class);
+        assertEquals("joecool", remote.username);
+        assertEquals(1443, remote.port);
+        assertEquals(30, remote.timeout);
+        assertEquals("initial", remote.missing);
+        assertEquals("classpath:/test-service-wsdl.xml", remote.location);
+
+        // A new instance each time, the converted values are reused
+        assertNotSame(remote, resolver.bind("remote.", Remote.class));
+        assertEquals("joecool", resolver.subset("remote").get("username"));
+
+        try {
+            resolver.bind("remote", Mismatch.class);
+            fail("joecool is not an int");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    static class Remote {
+
+        private String username;
+        private int port;
+
+        @Config(value = "timeout", defaultValue = "30")
+        private int timeout;
+
+        @Config("wsdl.location")
+        private String location;
+
+        private String missing = "initial";
+    }
+
+    static class Mismatch {
+
+        private int username;
+    }
+
+    @Test
+    public void perClassLoader() throws Exception {
+        final File one = Files.tmpdir();
+        final File two = Files.tmpdir();
+        IO.writeString(new File(one, "base.properties"), "app.name = one\n");
+        IO.writeString(new File(two, "base.properties"), "app.name = two\n");
+
+        final ClassLoader first = new URLClassLoader(new URL[]{one.toURI().toURL()}, null);
+        final ClassLoader second = new URLClassLoader(new URL[]{two.toURI().toURL()}, null);
+
+        final Thread thread = Thread.currentThread();
+        final ClassLoader previous = thread.getContextClassLoader();
+        try {
+            thread.setContextClassLoader(first);
+            final ConfigurationResolver resolver = ConfigurationResolver.get();
+            assertSame(resolver, ConfigurationResolver.get());
+            assertSame(resolver, ConfigurationResolver.get(first));
+            assertEquals("one", resolver.resolve("app.name", ""));
+
+            thread.setContextClassLoader(second);
+            assertEquals("two", ConfigurationResolver.get().resolve("app.name", ""));
+            assertNotSame(resolver, ConfigurationResolver.get());
+
+            // Undeployed
+            ConfigurationResolver.release(first);
+            assertNotSame(resolver, ConfigurationResolver.get(first));
+        } finally {
+            thread.setContextClassLoader(previous);
+            ConfigurationResolver.release(first);
+            ConfigurationResolver.release(second);
+            Files.remove(one);
+            Files.remove(two);
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void releaseLetsTheApplicationGo() throws Exception {
+        final WeakReference<ClassLoader> application = deployAndRelease();
+
+        for (int i = 0; i < 100 && null != application.get(); i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+
+        assertNull("the released application class loader is still referenced", application.get());
+    }
+
+    private static WeakReference<ClassLoader> deployAndRelease() throws Exception {
+        final ClassLoader loader = new Application();
+
+        final Thread thread = Thread.currentThread();
+        final ClassLoader previous = thread.getContextClassLoader();
+        try {
+            thread.setContextClassLoader(loader);
+            final ConfigurationResolver resolver = ConfigurationResolver.get();
+
+            // Delta observers running on the shared threads see the application, not sabot
+            final List<ClassLoader> seen = Collections.synchronizedList(new ArrayList<ClassLoader>());
+            for (int i = 0; i < 2; i++) {
+                resolver.register(new ConfigurationDeltaObserver() {
+                    @Override
+                    public Map<String, String> delta(final Map<String, String> resolved) {
+                        seen.add(Thread.currentThread().getContextClassLoader());
+                        return Collections.emptyMap();
+                    }
+                }, 0);
+            }
+
+            // Classes of the application are bound and converted to
+            final Class<?> remote = loader.loadClass(Remote.class.getName());
+            assertNotSame(Remote.class, remote);
+            assertSame(remote, resolver.bind("remote", remote).getClass());
+
+            final Class<?> mode = loader.loadClass(Mode.class.getName());
+            assertEquals("FAST", ((Enum<?>) resolver.resolve("remote.mode", "FAST", mode)).name());
+
+            assertEquals(Arrays.asList(loader, loader), seen);
+
+            ConfigurationResolver.release(loader);
+        } finally {
+            thread.setContextClassLoader(previous);
+        }
+
+        return new WeakReference<ClassLoader>(loader);
+    }
+
+    enum Mode {
+        FAST, SLOW
+    }
+
+    /**
+     * Defines its own copy of the classes nested in this test, as the class loader of a deployed application would
+     */
+    private static class Application extends ClassLoader {
+
+        private Application() {
+            super(ConfigurationResolverTest.class.getClassLoader());
+        }
+
+        @Override
+        protected synchronized Class<?> loadClass(final String name, final boolean resolve) throws ClassNotFoundException {
+            if (!name.startsWith(ConfigurationResolverTest.class.getName() + "$")) {
+                return super.loadClass(name, resolve);
+            }
+
+            final Class<?> loaded = findLoadedClass(name);
+            if (null != loaded) {
+                return loaded;
+            }
+
+            try {
+                final byte[] bytes = IO.readBytes(getResource(name.replace('.', '/') + ".class"));
+                return defineClass(name, bytes, 0, bytes.length);
+            } catch (final IOException e) {
+                throw new ClassNotFoundException(name, e);
+            }
+        }
+    }
+
+    @Test
+    public void concurrentInitialization() throws Exception {
+        final int threads = 16;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (int round = 0; round < 20; round++) {
+                final ConfigurationResolver resolver = new ConfigurationResolver();
+
+                // Slow enough that the other threads arrive while the configuration is loading
+                resolver.register(new ConfigurationObserver() {
+                    @Override
+                    public void mergeConfiguration(final Properties resolved) {
+                        try {
+                            Thread.sleep(5);
+                        } catch (final InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                }, 0);
+
+                final CountDownLatch start = new CountDownLatch(1);
+                final List<Future<String>> results = new ArrayList<Future<String>>();
+                for (int i = 0; i < threads; i++) {
+                    final int lookup = i % 4;
+                    results.add(executor.submit(new Callable<String>() {
+                        @Override
+                        public String call() throws Exception {
+                            start.await();
+                            if (lookup == 0) {
+                                return resolver.resolve("remote.username", "default");
+                            } else if (lookup == 1) {
+                                return String.valueOf(resolver.getInt("remote.port", 0));
+                            } else if (lookup == 2) {
+                                return resolver.getConfigValue("remote.username", "default", String.class).get();
+                            }
+                            return String.valueOf(resolver.isResolvableConfig("remote.username", ""));
+                        }
+                    }));
+                }
+                start.countDown();
+
+                // No caller ever sees the configuration before it is loaded
+                for (int i = 0; i < threads; i++) {
+                    final String expected = i % 4 == 0 || i % 4 == 2 ? "joecool" : i % 4 == 1 ? "1443" : "true";
+                    assertEquals(expected, results.get(i).get(10, TimeUnit.SECONDS));
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void observersResolving() {
+        final ConfigurationResolver resolver = new ConfigurationResolver();
+        final List<String> seen = new ArrayList<String>();
+
+        // Resolving while the configuration loads does not wait for the load, the configuration is not there yet
+        resolver.register(new ConfigurationObserver() {
+            @Override
+            public void mergeConfiguration(final Properties resolved) {
+                seen.add(resolver.resolve("remote.username", "loading"));
+            }
+        }, 0);
+        resolver.register(new ConfigurationDeltaObserver() {
+            @Override
+            public Map<String, String> delta(final Map<String, String> resolved) {
+                return Collections.singletonMap("delta.username", resolver.resolve("remote.username", "loading"));
+            }
+        }, 1);
+
+        final List<LogRecord> records = new ArrayList<LogRecord>();
+        final Handler handler = new Handler() {
+            @Override
+            public void publish(final LogRecord record) {
+                records.add(record);
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        final Logger logger = Logger.getLogger(ConfigurationResolver.class.getName());
+        logger.addHandler(handler);
+        try {
+            assertEquals("joecool", resolver.resolve("remote.username", ""));
+        } finally {
+            logger.removeHandler(handler);
+        }
+        assertEquals("loading", resolver.resolve("delta.username", ""));
+        assertEquals(Collections.singletonList("loading"), seen);
+
+        // Not silent, the first lookup served defaults is a warning
+        final List<String> warnings = new ArrayList<String>();
+        for (final LogRecord record : records) {
+            if (Level.WARNING == record.getLevel()) {
+                warnings.add(record.getMessage());
+            }
+        }
+        assertEquals(warnings.toString(), 1, warnings.size());
+        assertTrue(warnings.get(0), warnings.get(0).contains("while it loads for the first time"));
+    }
+
+    @Test(timeout = 10000)
+    public void preload() throws Exception {
+        final ConfigurationResolver resolver = new ConfigurationResolver();
+        final ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        final List<String> threads = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        resolver.register(new ConfigurationObserver() {
+            @Override
+            public void mergeConfiguration(final Properties resolved) {
+                threads.add(Thread.currentThread().getName());
+                loading.countDown();
+                try {
+                    release.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, 0);
+
+        final Future<ConfigurationResolver> preloaded = resolver.startPreload(loader);
+        assertSame(preloaded, resolver.startPreload(loader));
+
+        // The load is running in the background
+        loading.await();
+        assertFalse(preloaded.isDone());
+        release.countDown();
+
+        // A lookup waits for the preload rather than loading again
+        assertEquals("joecool", resolver.resolve("remote.username", ""));
+        assertSame(resolver, preloaded.get(10, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList("sabot-configuration-preload"), threads);
+
+        // Already loaded
+        assertSame(preloaded, resolver.startPreload(loader));
+    }
+
+    @Test(timeout = 10000)
+    public void preloadFailure() throws Exception {
+        final ConfigurationResolver resolver = new ConfigurationResolver();
+        final ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        final List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+
+        resolver.register(new ConfigurationObserver() {
+            @Override
+            public void mergeConfiguration(final Properties resolved) {
+                if (failures.isEmpty()) {
+                    failures.add("failed");
+                    throw new IllegalStateException("unavailable");
+                }
+            }
+        }, 0);
+
+        final Future<ConfigurationResolver> failed = resolver.startPreload(loader);
+        try {
+            failed.get(10, TimeUnit.SECONDS);
+            fail("ExecutionException expected");
+        } catch (final ExecutionException e) {
+            assertEquals("unavailable", e.getCause().getMessage());
+        }
+
+        // Not loaded, the next preload tries again
+        final Future<ConfigurationResolver> preloaded = resolver.startPreload(loader);
+        assertNotSame(failed, preloaded);
+        assertSame(resolver, preloaded.get(10, TimeUnit.SECONDS));
+        assertEquals("joecool", resolver.resolve("remote.username", ""));
+    }
+
+    @Test
+    public void lazy() {
+        System.setProperty(ConfigurationResolver.LAZY, "true");
+        try {
+            final ConfigurationResolver lazy = new ConfigurationResolver();
+
+            assertEquals(resolver.resolve("remote.target.url", ""), lazy.resolve("remote.target.url", ""));
+            assertEquals(1443, lazy.resolve("remote.port", "", Integer.class));
+            assertTrue(lazy.isResolvableConfig("remote.username", ""));
+            assertFalse(lazy.isResolvableConfig("something", ""));
+        } finally {
+            System.clearProperty(ConfigurationResolver.LAZY);
+        }
+    }
+
+    @Test
+    public void lazyObservers() {
+        System.setProperty(ConfigurationResolver.LAZY, "true");
+        try {
+            final ConfigurationResolver lazy = new ConfigurationResolver();
+            final List<String> seen = new ArrayList<String>();
+            lazy.register(new ConfigurationDeltaObserver() {
+                @Override
+                public Map<String, String> delta(final Map<String, String> resolved) {
+                    seen.add(resolved.get("remote.address"));
+                    return Collections.singletonMap("remote.host", "remotedb002.supertribe.org");
+                }
+            }, 0);
+
+            // The change is a layer over the properties files, references to it see it
+            assertEquals("remotedb002.supertribe.org:1443", lazy.resolve("remote.address", ""));
+            assertEquals("remotedb002.supertribe.org", lazy.resolve("remote.host", ""));
+
+            // Observers are given the values as written
+            assertEquals(Collections.singletonList("${remote.host}:${remote.port}"), seen);
+
+            lazy.register(new ConfigurationObserver() {
+                @Override
+                public void mergeConfiguration(final Properties properties) {
+                    properties.remove("remote.username");
+                }
+            }, 1);
+            lazy.reload();
+
+            assertFalse(lazy.isResolvableConfig("remote.username", ""));
+            assertEquals("remotedb002.supertribe.org:1443", lazy.resolve("remote.address", ""));
+        } finally {
+            System.clearProperty(ConfigurationResolver.LAZY);
+        }
+    }
 }
@@ -0,0 +1,197 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.tomitribe.sabot;
+
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConfigurationSnapshotTest {
+
+    @Test
+    public void empty() {
+        assertEquals(0, ConfigurationSnapshot.EMPTY.size());
+        assertNull(ConfigurationSnapshot.EMPTY.get("anything"));
+        assertFalse(ConfigurationSnapshot.EMPTY.containsKey("anything"));
+    }
+
+    @Test
+    public void lookup() {
+        final Properties properties = new Properties();
+        for (int i = 0; i < 10000; i++) {
+            properties.setProperty("key." + i, "value." + i);
+        }
+
+        final ConfigurationSnapshot snapshot = new ConfigurationSnapshot(properties);
+
+        assertEquals(10000, snapshot.size());
+        for (int i = 0; i < 10000; i++) {
+            assertEquals("value." + i, snapshot.get("key." + i));
+        }
+
+        assertNull(snapshot.get("key.10000"));
+        assertTrue(snapshot.containsKey("key.0"));
+        assertFalse(snapshot.containsKey("value.0"));
+    }
+
+    @Test
+    public void primitives() {
+        final Properties properties = new Properties();
+        properties.setProperty("port", "0x5A3");
+        properties.setProperty("timeout", "30000000000");
+        properties.setProperty("enabled", "TRUE");
+        properties.setProperty("ratio", "0.75");
+        properties.setProperty("host", "localhost");
+
+        final ConfigurationSnapshot snapshot = new ConfigurationSnapshot(properties);
+
+        final ConfigurationSnapshot.Parsed port = snapshot.parse("port", ConfigurationSnapshot.Primitive.INT);
+        assertEquals(1443, port.asInt());
+        assertEquals(1443, port.boxed());
+        assertSame(port, snapshot.parse("port", ConfigurationSnapshot.Primitive.INT));
+
+        assertEquals(30000000000L, snapshot.parse("timeout", ConfigurationSnapshot.Primitive.LONG).asLong());
+        assertTrue(snapshot.parse("enabled", ConfigurationSnapshot.Primitive.BOOLEAN).asBoolean());
+        assertEquals(0.75, snapshot.parse("ratio", ConfigurationSnapshot.Primitive.DOUBLE).asDouble(), 0);
+        assertEquals(1443L, snapshot.parse("port", ConfigurationSnapshot.Primitive.LONG).asLong());
+        assertNull(snapshot.parse("unknown", ConfigurationSnapshot.Primitive.INT));
+
+        for (final String key : new String[]{"timeout", "host"}) {
+            try {
+                snapshot.parse(key, ConfigurationSnapshot.Primitive.INT);
+                fail(key + " is not an int");
+            } catch (final IllegalArgumentException e) {
+                // expected
+            }
+        }
+
+        try {
+            snapshot.parse("host", ConfigurationSnapshot.Primitive.BOOLEAN);
+            fail("host is not a boolean");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+
+        final ConfigurationSnapshot lazy = ConfigurationSnapshot.lazy(properties);
+        assertEquals(1443, lazy.parse("port", ConfigurationSnapshot.Primitive.INT).asInt());
+        assertSame(lazy.parse("port", ConfigurationSnapshot.Primitive.INT), lazy.parse("port", ConfigurationSnapshot.Primitive.INT));
+        assertNull(lazy.parse("unknown", ConfigurationSnapshot.Primitive.INT));
+    }
+
+    @Test
+    public void subset() {
+        final Properties properties = new Properties();
+        properties.setProperty("db.pool.size", "10");
+        properties.setProperty("db.pool.timeout", "30");
+        properties.setProperty("db.poolside", "not in the namespace");
+        properties.setProperty("db.url", "jdbc:h2:mem:");
+        properties.setProperty("cache.region.users.size", "100");
+        properties.setProperty("dc", "before the namespace");
+
+        final ConfigurationSnapshot snapshot = new ConfigurationSnapshot(properties);
+
+        final Map<String, String> pool = snapshot.subset("db.pool");
+        assertEquals(2, pool.size());
+        assertEquals("10", pool.get("size"));
+        assertEquals("30", pool.get("timeout"));
+        assertEquals("[size, timeout]", pool.keySet().toString());
+
+        // Kept with the snapshot, with or without the trailing dot
+        assertSame(pool, snapshot.subset("db.pool"));
+        assertEquals(pool, snapshot.subset("db.pool."));
+
+        assertEquals(4, snapshot.subset("db").size());
+        assertEquals("100", snapshot.subset("cache.region.users").get("size"));
+        assertTrue(snapshot.subset("unknown").isEmpty());
+        assertEquals(6, snapshot.subset("").size());
+
+        try {
+            pool.put("size", "20");
+            fail("Expected an unmodifiable map");
+        } catch (final UnsupportedOperationException e) {
+            // expected
+        }
+
+        // Interpolated on the way out when lazy
+        properties.setProperty("db.pool.size", "${db.pool.timeout}");
+        assertEquals("30", ConfigurationSnapshot.lazy(properties).subset("db.pool").get("size"));
+    }
+
+    @Test
+    public void collidingKeys() {
+        // "Aa" and "BB" share the same String.hashCode()
+        final Properties properties = new Properties();
+        properties.setProperty("Aa", "first");
+        properties.setProperty("BB", "second");
+        properties.setProperty("AaBB", "third");
+        properties.setProperty("BBAa", "fourth");
+
+        final ConfigurationSnapshot snapshot = new ConfigurationSnapshot(properties);
+
+        assertEquals(4, snapshot.size());
+        assertEquals("first", snapshot.get("Aa"));
+        assertEquals("second", snapshot.get("BB"));
+        assertEquals("third", snapshot.get("AaBB"));
+        assertEquals("fourth", snapshot.get("BBAa"));
+        assertNull(snapshot.get("AaAa"));
+    }
+
+    @Test
+    public void lazy() {
+        final Properties properties = new Properties();
+        properties.setProperty("remote.host", "localhost");
+        properties.setProperty("remote.port", "1443");
+        properties.setProperty("remote.url", "https://${remote.host}:${remote.port}/${unknown}");
+        properties.setProperty("cycle.a", "${cycle.b}");
+        properties.setProperty("cycle.b", "${cycle.a}");
+
+        final ConfigurationSnapshot snapshot = ConfigurationSnapshot.lazy(properties);
+
+        assertEquals(5, snapshot.size());
+        assertTrue(snapshot.containsKey("cycle.a"));
+        assertEquals("https://localhost:1443/${unknown}", snapshot.get("remote.url"));
+        assertEquals("1443", snapshot.get("remote.port"));
+        assertNull(snapshot.get("unknown"));
+
+        // Only the keys looked up fail
+        try {
+            snapshot.get("cycle.a");
+            fail("cycle.a references itself through cycle.b");
+        } catch (final IllegalStateException e) {
+            assertEquals("Cyclic property reference: cycle.a -> cycle.b -> cycle.a", e.getMessage());
+        }
+    }
+
+    @Test
+    public void lazyMatchesEager() throws Exception {
+        final Map<String, String> raw = Environments.merge("dev");
+        final ConfigurationSnapshot lazy = ConfigurationSnapshot.lazy(raw);
+
+        final Properties eager = Interpolation.interpolate(raw);
+        for (final String key : eager.stringPropertyNames()) {
+            assertEquals(eager.getProperty(key), lazy.get(key));
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.tomitribe.sabot;
+
+import org.junit.Test;
+import org.tomitribe.util.Duration;
+import org.tomitribe.util.editor.Converter;
+
+import java.io.File;
+import java.net.URI;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class ConversionsTest {
+
+    @Test
+    public void sameAsConverter() {
+        assertConversion("hello", String.class);
+        assertConversion("hello", Object.class);
+        assertConversion("0x10", Integer.class);
+        assertConversion("010", int.class);
+        assertConversion("-42", long.class);
+        assertConversion("7", Short.class);
+        assertConversion("7", byte.class);
+        assertConversion("1e3", float.class);
+        assertConversion("1.5", Double.class);
+        assertConversion("TRUE", boolean.class);
+        assertConversion("false", Boolean.class);
+        assertConversion("x", Character.class);
+        assertConversion("seconds", TimeUnit.class);
+        assertConversion("./conf", File.class);
+        assertConversion("http://localhost:8080/", URI.class);
+        assertConversion("10 minutes and 57 seconds", Duration.class);
+    }
+
+    @Test
+    public void invalid() {
+        assertInvalid("yes", Boolean.class);
+        assertInvalid(" 5", Integer.class);
+        assertInvalid("", int.class);
+        assertInvalid("not a unit", TimeUnit.class);
+    }
+
+    @Test
+    public void cachedPerSnapshot() {
+        final Properties properties = new Properties();
+        properties.setProperty("file", "./conf");
+        properties.setProperty("duration", "10 minutes");
+
+        final ConfigurationSnapshot snapshot = new ConfigurationSnapshot(properties);
+
+        final Object file = snapshot.convert("file", "./conf", File.class);
+        assertSame(file, snapshot.convert("file", "./conf", File.class));
+
+        // a different default for the same key is not served from the cache
+        assertEquals(new File("./other"), snapshot.convert("file", "./other", File.class));
+
+        // mutable types are converted every time
+        assertNotSame(snapshot.convert("duration", "10 minutes", Duration.class),
+                snapshot.convert("duration", "10 minutes", Duration.class));
+
+        // a new snapshot starts with an empty cache
+        assertNotSame(file, new ConfigurationSnapshot(properties).convert("file", "./conf", File.class));
+    }
+
+    private static void assertConversion(final String value, final Class<?> type) {
+        assertEquals(Converter.convert(value, type, "key"), Conversions.of(type).convert("key", value));
+    }
+
+    private static void assertInvalid(final String value, final Class<?> type) {
+        try {
+            Converter.convert(value, type, "key");
+            fail("Converter accepted " + value);
+        } catch (final RuntimeException e) {
+            // expected
+        }
+
+        try {
+            Conversions.of(type).convert("key", value);
+            fail("Conversion accepted " + value);
+        } catch (final RuntimeException e) {
+            // expected
+        }
+    }
+}
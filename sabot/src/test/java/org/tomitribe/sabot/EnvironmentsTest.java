@@ -17,12 +17,23 @@
 package org.tomitribe.sabot;
 
 import org.junit.Test;
+import org.tomitribe.util.Files;
+import org.tomitribe.util.IO;
 
 import javax.resource.ResourceException;
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * Tests the related environment properties exist
@@ -75,6 +86,110 @@ public class EnvironmentsTest {
         assertEquals("joecool", test.getProperty("remote.username"));
     }
 
+    @Test
+    public void largeLayers() throws Exception {
+        final File dir = Files.tmpdir();
+        final ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        try {
+            // Large enough to be memory mapped, with the syntax Properties.load supports
+            final StringBuilder base = new StringBuilder("# comment\n! other comment\n");
+            final StringBuilder big = new StringBuilder();
+            for (int i = 0; i < 20000; i++) {
+                base.append("key.").append(i).append(" = base ").append(i).append('\n');
+                big.append("key.").append(i).append(':').append("big\\u00e9 \\\n    continued ").append(i).append('\n');
+            }
+            big.append("escaped\\ key\\=x = a\\tb\n");
+            big.append("latin = caf\u00e9\n");
+            big.append("ref = ${key.1}\n");
+
+            IO.copy(base.toString().getBytes("ISO-8859-1"), new File(dir, "base.properties"));
+            IO.copy(big.toString().getBytes("ISO-8859-1"), new File(dir, "big.properties"));
+
+            Thread.currentThread().setContextClassLoader(new URLClassLoader(new URL[]{dir.toURI().toURL()}, null));
+
+            final Properties properties = Environments.getProperties("big");
+
+            final Properties expected = IO.readProperties(new File(dir, "big.properties"));
+            assertEquals(expected.getProperty("key.19999"), properties.getProperty("key.19999"));
+            assertEquals("big\u00e9 continued 7", properties.getProperty("key.7"));
+            assertEquals("a\tb", properties.getProperty("escaped key=x"));
+            assertEquals("caf\u00e9", properties.getProperty("latin"));
+            assertEquals("big\u00e9 continued 1", properties.getProperty("ref"));
+            assertEquals(20003, properties.size());
+        } finally {
+            Thread.currentThread().setContextClassLoader(loader);
+            Files.remove(dir);
+        }
+    }
+
+    @Test
+    public void cachedLookups() throws Exception {
+        final File dir = Files.tmpdir();
+        final ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        try {
+            IO.writeString(new File(dir, "base.properties"), "remote.port = 1443\n");
+            IO.writeString(new File(dir, "dev.properties"), "remote.port = 2443\n");
+
+            final List<String> lookups = new ArrayList<String>();
+            Thread.currentThread().setContextClassLoader(new URLClassLoader(new URL[]{dir.toURI().toURL()}, null) {
+                @Override
+                public URL getResource(final String name) {
+                    lookups.add(name);
+                    return super.getResource(name);
+                }
+            });
+
+            assertEquals("2443", Environments.getProperties("dev").getProperty("remote.port"));
+            // test.properties is missing, probed with and without the leading slash
+            assertEquals(Arrays.asList("base.properties", "test.properties", "/test.properties", "dev.properties"), lookups);
+
+            lookups.clear();
+            assertEquals("2443", Environments.getProperties("dev").getProperty("remote.port"));
+            assertEquals(2, Environments.getResources("dev").size());
+            assertTrue(lookups.isEmpty());
+
+            // Clearing another application's lookups keeps these
+            Environments.clearResources(loader);
+            assertEquals("2443", Environments.getProperties("dev").getProperty("remote.port"));
+            assertTrue(lookups.isEmpty());
+
+            // Resources added later are found once the cache is cleared
+            IO.writeString(new File(dir, "test.properties"), "remote.port = 3443\n");
+            assertEquals("2443", Environments.getProperties("dev").getProperty("remote.port"));
+            Environments.clearResources(Thread.currentThread().getContextClassLoader());
+            assertEquals("3443", Environments.getProperties("test").getProperty("remote.port"));
+        } finally {
+            Thread.currentThread().setContextClassLoader(loader);
+            Files.remove(dir);
+        }
+    }
+
+    @Test
+    public void directory() throws Exception {
+        final File dir = Files.tmpdir();
+        try {
+            IO.writeString(new File(dir, "base.properties"), "remote.port = 1443\nremote.url = https://localhost:${remote.port}\n");
+            IO.writeString(new File(dir, "dev.properties"), "remote.port = 2443\n");
+
+            System.setProperty(ConfigurationResolver.DIRECTORY, dir.getAbsolutePath());
+
+            // The test.properties on the classpath is not read
+            final Properties properties = Environments.getProperties("dev");
+            assertEquals("https://localhost:2443", properties.getProperty("remote.url"));
+            assertNull(properties.getProperty("remote.username"));
+            assertEquals(2, Environments.getResources("dev").size());
+
+            try {
+                Environments.getProperties("cert");
+                fail("cert.properties is only on the classpath");
+            } catch (final ResourceException e) {
+                assertEquals("Unable to find 'cert.properties' in " + dir.getAbsolutePath(), e.getMessage());
+            }
+        } finally {
+            System.clearProperty(ConfigurationResolver.DIRECTORY);
+            Files.remove(dir);
+        }
+    }
 
     private static void generateAsserts(final Properties test) {
         for (final Map.Entry<Object, Object> entry : test.entrySet()) {
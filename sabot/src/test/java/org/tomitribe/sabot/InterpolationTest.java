@@ -20,9 +20,17 @@ import org.junit.Test;
 import org.tomitribe.util.IO;
 
 import java.net.URL;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
 
 public class InterpolationTest {
 
@@ -59,4 +67,198 @@ public class InterpolationTest {
         assertEquals("classpath:/test-service-wsdl.xml", properties.getProperty("remote.wsdl.location"));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void nested() throws Exception {
+        final Properties properties = new Properties();
+        properties.setProperty("env", "prod");
+        properties.setProperty("remote.prod.host", "remotedb001.supertribe.org");
+        properties.setProperty("host", "${remote.${env}.host}");
+
+        final Properties interpolated = Interpolation.interpolate(properties);
+
+        assertEquals("remotedb001.supertribe.org", interpolated.getProperty("host"));
+    }
+
+    @Test
+    public void deepChain() throws Exception {
+        final Properties properties = new Properties();
+        properties.setProperty("key.0", "value");
+        for (int i = 1; i < 5000; i++) {
+            properties.setProperty("key." + i, "${key." + (i - 1) + "}");
+        }
+
+        final Properties interpolated = Interpolation.interpolate(properties);
+
+        assertEquals("value", interpolated.getProperty("key.4999"));
+        assertEquals("value", interpolated.getProperty("key.2500"));
+    }
+
+    @Test
+    public void longChain() throws Exception {
+        final Map<String, String> raw = new HashMap<String, String>();
+        raw.put("key.0", "value");
+        for (int i = 1; i < 20000; i++) {
+            raw.put("key." + i, "${key." + (i - 1) + "}");
+        }
+
+        // Resolving from the end walks the whole chain at once
+        final ConcurrentHashMap<String, String> resolved = new ConcurrentHashMap<String, String>();
+        assertEquals("value", Interpolation.resolve(raw, resolved, "key.19999"));
+        assertEquals(20000, resolved.size());
+
+        final Interpolation.Graph graph = new Interpolation.Graph(raw);
+        assertEquals("value", graph.get("key.19999"));
+
+        final Map<String, String> changes = new HashMap<String, String>();
+        changes.put("key.0", "updated");
+        assertEquals(20000, graph.update(changes).size());
+        assertEquals("updated", graph.get("key.19999"));
+    }
+
+    @Test
+    public void longCycle() throws Exception {
+        final Map<String, String> raw = new HashMap<String, String>();
+        for (int i = 0; i < 20000; i++) {
+            raw.put("key." + i, "${key." + ((i + 1) % 20000) + "}");
+        }
+
+        try {
+            Interpolation.resolve(raw, new ConcurrentHashMap<String, String>(), "key.0");
+            fail("cyclic references can not be interpolated");
+        } catch (final IllegalStateException e) {
+            final String message = e.getMessage();
+            assertEquals(20001, message.substring(message.indexOf(": ") + 2).split(" -> ").length);
+        }
+    }
+
+    @Test
+    public void cycle() throws Exception {
+        final Properties properties = new Properties();
+        properties.setProperty("start", "${a}");
+        properties.setProperty("a", "x${b}");
+        properties.setProperty("b", "${c}");
+        properties.setProperty("c", "${a}");
+
+        try {
+            Interpolation.interpolate(properties);
+            fail("cyclic references can not be interpolated");
+        } catch (final IllegalStateException e) {
+            final String message = e.getMessage();
+            final String path = message.substring(message.indexOf(": ") + 2);
+
+            // the start of the cycle depends on iteration order, the loop does not
+            assertEquals(4, path.split(" -> ").length);
+            assertEquals(path.substring(0, path.indexOf(" -> ")), path.substring(path.lastIndexOf(" -> ") + 4));
+        }
+    }
+
+    @Test
+    public void selfReference() throws Exception {
+        final Properties properties = new Properties();
+        properties.setProperty("a", "${a}");
+
+        try {
+            Interpolation.interpolate(properties);
+            fail("a key can not reference itself");
+        } catch (final IllegalStateException e) {
+            assertEquals("Cyclic property reference: a -> a", e.getMessage());
+        }
+    }
+
+    @Test
+    public void specialCharacters() throws Exception {
+        final Properties properties = new Properties();
+        properties.setProperty("password", "pa$$w\\rd${1}");
+        properties.setProperty("login", "admin:${password}");
+
+        final Properties interpolated = Interpolation.interpolate(properties);
+
+        assertEquals("admin:pa$$w\\rd${1}", interpolated.getProperty("login"));
+    }
+
+    @Test
+    public void format() throws Exception {
+        final Map<String, String> values = new HashMap<String, String>();
+        values.put("host", "localhost");
+        values.put("port", "8080");
+
+        final String plain = "http://localhost/";
+        assertSame(plain, Interpolation.format(plain, values));
+
+        final String unknown = "http://${unknown}/";
+        assertSame(unknown, Interpolation.format(unknown, values));
+
+        assertEquals("http://localhost:8080/", Interpolation.format("http://${host}:${port}/", values));
+        assertEquals("localhost", Interpolation.format("${host}", values));
+        assertEquals("${}${ host}$localhost{port}${host", Interpolation.format("${}${ host}$${host}{port}${host", values));
+        assertEquals("${remote.localhost.url}", Interpolation.format("${remote.${host}.url}", values));
+    }
+
+    @Test
+    public void graph() throws Exception {
+        final Properties properties = new Properties();
+        properties.setProperty("env", "prod");
+        properties.setProperty("remote.prod.host", "prod.supertribe.org");
+        properties.setProperty("remote.dev.host", "dev.supertribe.org");
+        properties.setProperty("remote.host", "${remote.${env}.host}");
+        properties.setProperty("remote.url", "https://${remote.host}:${remote.port}/");
+        properties.setProperty("other", "unrelated");
+
+        final Interpolation.Graph graph = new Interpolation.Graph(properties);
+        assertEquals(Interpolation.interpolate(properties), graph.toProperties());
+        assertEquals("https://prod.supertribe.org:${remote.port}/", graph.get("remote.url"));
+
+        // Only the keys referencing 'env', directly or not, are recomputed
+        assertEquals(set("env", "remote.host", "remote.url"), graph.update(map("env", "dev")));
+        assertEquals("https://dev.supertribe.org:${remote.port}/", graph.get("remote.url"));
+
+        // A key referenced before it existed
+        assertEquals(set("remote.port", "remote.url"), graph.update(map("remote.port", "8443")));
+        assertEquals("https://dev.supertribe.org:8443/", graph.get("remote.url"));
+
+        // Formed by substitution, 'remote.prod.host' is no longer referenced
+        assertEquals(set("remote.prod.host"), graph.update(map("remote.prod.host", "changed")));
+        assertEquals(set(), graph.update(map("remote.dev.host", "dev.supertribe.org")));
+
+        assertEquals(set("remote.port", "remote.url"), graph.update(map("remote.port", null)));
+        assertEquals("https://dev.supertribe.org:${remote.port}/", graph.get("remote.url"));
+
+        properties.setProperty("env", "dev");
+        properties.setProperty("remote.prod.host", "changed");
+        properties.setProperty("other", "changed");
+        assertEquals(set("other"), graph.replace(properties));
+        assertEquals(Interpolation.interpolate(properties), graph.toProperties());
+    }
+
+    @Test
+    public void graphCycle() throws Exception {
+        final Properties properties = new Properties();
+        properties.setProperty("a", "${b}");
+        properties.setProperty("b", "b");
+        properties.setProperty("c", "${a}");
+
+        final Interpolation.Graph graph = new Interpolation.Graph(properties);
+
+        try {
+            graph.update(map("b", "${c}"));
+            fail("IllegalStateException expected");
+        } catch (final IllegalStateException e) {
+            // The graph is left as it was
+            assertEquals("b", graph.get("c"));
+            assertEquals(3, graph.size());
+        }
+
+        assertEquals(set("b", "a", "c"), graph.update(map("b", "B")));
+        assertEquals("B", graph.get("c"));
+    }
+
+    private static Map<String, String> map(final String key, final String value) {
+        final Map<String, String> map = new HashMap<String, String>();
+        map.put(key, value);
+        return map;
+    }
+
+    private static Set<String> set(final String... keys) {
+        return new HashSet<String>(Arrays.asList(keys));
+    }
+}
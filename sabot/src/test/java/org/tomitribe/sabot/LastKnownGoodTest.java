@@ -0,0 +1,166 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.tomitribe.sabot;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.tomitribe.util.Files;
+import org.tomitribe.util.IO;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LastKnownGoodTest {
+
+    private File dir;
+    private File file;
+
+    @Before
+    public void setUp() {
+        dir = Files.tmpdir();
+        file = new File(dir, "sabot/last-known-good");
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty(ConfigurationResolver.LAST_KNOWN_GOOD);
+        Files.remove(dir);
+    }
+
+    @Test
+    public void roundTrip() {
+        final Map<String, String> entries = new HashMap<String, String>();
+        entries.put("remote.url", "https://localhost:1443");
+        entries.put("latin", "caf\u00e9");
+        entries.put("empty", "");
+
+        LastKnownGood.write(file, "app", "dev", entries);
+
+        assertEquals(entries, LastKnownGood.read(file, "app", "dev"));
+
+        // Saved for another environment or another application
+        assertNull(LastKnownGood.read(file, "app", "prod"));
+        assertNull(LastKnownGood.read(file, "other", "dev"));
+        assertNull(LastKnownGood.read(new File(dir, "missing"), "app", "dev"));
+    }
+
+    @Test
+    public void ownerOnly() throws Exception {
+        final Path path = file.toPath();
+        LastKnownGood.write(file, "app", "dev", Collections.singletonMap("remote.password", "secret"));
+        Assume.assumeTrue(java.nio.file.Files.getFileStore(path).supportsFileAttributeView(PosixFileAttributeView.class));
+
+        // Passwords are saved as loaded, nobody else may read them
+        assertEquals(PosixFilePermissions.fromString("rw-------"), java.nio.file.Files.getPosixFilePermissions(path));
+        assertEquals("secret", LastKnownGood.read(file, "app", "dev").get("remote.password"));
+    }
+
+    @Test
+    public void corrupt() throws Exception {
+        LastKnownGood.write(file, "app", "dev", Collections.singletonMap("remote.url", "https://localhost:1443"));
+        final byte[] bytes = IO.readBytes(file);
+
+        final byte[] flipped = bytes.clone();
+        flipped[flipped.length / 2] ^= 1;
+        IO.copy(flipped, file);
+        assertNull(LastKnownGood.read(file, "app", "dev"));
+
+        IO.copy(Arrays.copyOf(bytes, bytes.length - 10), file);
+        assertNull(LastKnownGood.read(file, "app", "dev"));
+
+        IO.copy(new byte[]{1, 2}, file);
+        assertNull(LastKnownGood.read(file, "app", "dev"));
+    }
+
+    @Test(timeout = 10000)
+    public void resolver() throws Exception {
+        final File directory = new File(dir, "sabot");
+        System.setProperty(ConfigurationResolver.LAST_KNOWN_GOOD, directory.getAbsolutePath());
+        final String application = LastKnownGood.application(Thread.currentThread().getContextClassLoader());
+        final File saved = LastKnownGood.file(directory, application);
+
+        // Saved after loading
+        assertEquals("joecool", new ConfigurationResolver().resolve("remote.username", ""));
+        assertEquals("joecool", LastKnownGood.read(saved, application, "base").get("remote.username"));
+
+        LastKnownGood.write(saved, application, "base", Collections.singletonMap("remote.username", "saved"));
+
+        final CountDownLatch live = new CountDownLatch(1);
+        final ConfigurationResolver resolver = new ConfigurationResolver();
+        resolver.register(new ConfigurationObserver() {
+            @Override
+            public void mergeConfiguration(final Properties resolved) {
+                try {
+                    live.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, 0);
+
+        // Served while the live configuration is still loading
+        assertEquals("saved", resolver.resolve("remote.username", ""));
+        live.countDown();
+
+        // Not saved last time, waits for the live configuration rather than report it missing
+        assertTrue(resolver.isResolvableConfig("remote.port", ""));
+        assertEquals("joecool", resolver.resolve("remote.username", ""));
+        assertEquals("1443", LastKnownGood.read(saved, application, "base").get("remote.port"));
+    }
+
+    @Test
+    public void applications() throws Exception {
+        final File directory = new File(dir, "sabot");
+        System.setProperty(ConfigurationResolver.LAST_KNOWN_GOOD, directory.getAbsolutePath());
+
+        // Two applications of the same server, each with its own class loader
+        final ClassLoader parent = Thread.currentThread().getContextClassLoader();
+        final ClassLoader first = new URLClassLoader(new URL[]{new File(dir, "first").toURI().toURL()}, parent);
+        final ClassLoader second = new URLClassLoader(new URL[]{new File(dir, "second").toURI().toURL()}, parent);
+        final File firstFile = LastKnownGood.file(directory, LastKnownGood.application(first));
+        final File secondFile = LastKnownGood.file(directory, LastKnownGood.application(second));
+
+        assertEquals("joecool", new ConfigurationResolver(first).resolve("remote.username", ""));
+        assertEquals("joecool", new ConfigurationResolver(second).resolve("remote.username", ""));
+
+        assertFalse(firstFile.equals(secondFile));
+        assertEquals("joecool", LastKnownGood.read(firstFile, LastKnownGood.application(first), "base").get("remote.username"));
+        assertNull(LastKnownGood.read(firstFile, LastKnownGood.application(second), "base"));
+
+        // A file of the first application in place of the second's, as if their names collided, is not served
+        LastKnownGood.write(firstFile, LastKnownGood.application(first), "base", Collections.singletonMap("remote.username", "first"));
+        IO.copy(firstFile, secondFile);
+        assertEquals("joecool", new ConfigurationResolver(second).resolve("remote.username", ""));
+    }
+}
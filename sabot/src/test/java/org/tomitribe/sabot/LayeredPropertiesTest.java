@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.tomitribe.sabot;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LayeredPropertiesTest {
+
+    @Test
+    public void layers() throws Exception {
+        final Properties base = properties("remote.host", "localhost", "remote.port", "1443", "remote.user", "joecool");
+        final Properties test = properties("remote.port", "2443");
+        final Properties dev = properties("remote.host", "dev.supertribe.org", "dev.only", "true");
+
+        final LayeredProperties layered = new LayeredProperties(Arrays.asList("base", "test", "dev"), Arrays.asList(base, test, dev));
+
+        assertEquals("dev.supertribe.org", layered.get("remote.host"));
+        assertEquals("2443", layered.get("remote.port"));
+        assertEquals("joecool", layered.get("remote.user"));
+        assertNull(layered.get("unknown"));
+        assertTrue(layered.containsKey("dev.only"));
+        assertFalse(layered.containsKey("unknown"));
+
+        assertEquals("dev", layered.getLayer("remote.host"));
+        assertEquals("test", layered.getLayer("remote.port"));
+        assertEquals("base", layered.getLayer("remote.user"));
+        assertNull(layered.getLayer("unknown"));
+        assertEquals(Arrays.asList("base", "test", "dev"), layered.getLayerNames());
+
+        // Iterates each key once, the same as copying the layers into one another
+        final Map<Object, Object> merged = new HashMap<Object, Object>();
+        merged.putAll(base);
+        merged.putAll(test);
+        merged.putAll(dev);
+
+        assertEquals(4, layered.size());
+        assertEquals(4, layered.entrySet().size());
+        assertEquals(merged, new HashMap<String, String>(layered));
+
+        try {
+            layered.put("remote.host", "changed");
+            fail("Expected an unmodifiable map");
+        } catch (final UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void environments() throws Exception {
+        final LayeredProperties layered = Environments.merge("dev");
+
+        assertEquals(Arrays.asList("base", "test", "dev"), layered.getLayerNames());
+        assertEquals("dev", layered.getLayer("remote.host"));
+        assertEquals("test", layered.getLayer("remote.wsdl.location"));
+        assertEquals("base", layered.getLayer("remote.username"));
+
+        assertEquals(Environments.getProperties("dev"), Interpolation.interpolate(layered));
+    }
+
+    private static Properties properties(final String... pairs) {
+        final Properties properties = new Properties();
+        for (int i = 0; i < pairs.length; i += 2) {
+            properties.setProperty(pairs[i], pairs[i + 1]);
+        }
+        return properties;
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.tomitribe.sabot;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.tomitribe.util.Files;
+import org.tomitribe.util.IO;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SnapshotsTest {
+
+    private ClassLoader loader;
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.tmpdir();
+        IO.writeString(new File(dir, "base.properties"), "remote.port = 1443\nremote.url = https://localhost:${remote.port}\nlatin = caf\\u00e9\n");
+        IO.writeString(new File(dir, "dev.properties"), "remote.port = 2443\nother.port = 2443\n");
+
+        loader = Thread.currentThread().getContextClassLoader();
+        Thread.currentThread().setContextClassLoader(new URLClassLoader(new URL[]{dir.toURI().toURL()}, null));
+    }
+
+    @After
+    public void tearDown() {
+        Thread.currentThread().setContextClassLoader(loader);
+        System.clearProperty(ConfigurationResolver.ENVIRONMENT);
+        Files.remove(dir);
+    }
+
+    @Test
+    public void resourceName() {
+        assertEquals("META-INF/sabot/default.snapshot", Snapshots.getResourceName(null));
+        assertEquals("META-INF/sabot/default.snapshot", Snapshots.getResourceName(" "));
+        assertEquals("META-INF/sabot/prod,dev.snapshot", Snapshots.getResourceName("prod , dev"));
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        write("dev");
+
+        assertEquals(Environments.getProperties("dev"), Snapshots.read("dev"));
+        assertEquals("https://localhost:2443", Snapshots.read("dev").getProperty("remote.url"));
+        assertEquals("caf\u00e9", Snapshots.read("dev").getProperty("latin"));
+
+        // No snapshot was built for the default environment
+        assertNull(Snapshots.read(null));
+    }
+
+    @Test
+    public void stale() throws Exception {
+        write("dev");
+
+        // Built without a test.properties, so it no longer matches the classpath
+        IO.writeString(new File(dir, "test.properties"), "remote.port = 3443\n");
+        Environments.clearResources(Thread.currentThread().getContextClassLoader());
+
+        assertNull(Snapshots.read("dev"));
+    }
+
+    @Test
+    public void corrupt() throws Exception {
+        final byte[] bytes = write("dev");
+
+        final File snapshot = new File(dir, Snapshots.getResourceName("dev"));
+        IO.copy(Arrays.copyOf(bytes, bytes.length - 10), snapshot);
+        assertNull(Snapshots.read("dev"));
+
+        IO.copy(new byte[]{1, 2, 3, 4, 5, 6, 7, 8}, snapshot);
+        assertNull(Snapshots.read("dev"));
+    }
+
+    @Test
+    public void edited() throws Exception {
+        write("dev");
+
+        // Same layers, but the file changed since the snapshot was built
+        IO.writeString(new File(dir, "dev.properties"), "remote.port = 4443\nother.port = 2443\n");
+
+        assertNull(Snapshots.read("dev"));
+    }
+
+    @Test
+    public void directory() throws Exception {
+        write("dev");
+
+        System.setProperty(ConfigurationResolver.DIRECTORY, dir.getAbsolutePath());
+        try {
+            assertNull(Snapshots.read("dev"));
+        } finally {
+            System.clearProperty(ConfigurationResolver.DIRECTORY);
+        }
+    }
+
+    @Test
+    public void resolver() throws Exception {
+        System.setProperty(ConfigurationResolver.ENVIRONMENT, "dev");
+
+        // Tampered with so it is told apart from the properties files
+        final byte[] bytes = replace(write("dev"), "localhost:2443", "localhost:5443");
+        IO.copy(bytes, new File(dir, Snapshots.getResourceName("dev")));
+
+        // The snapshot is read instead of the properties files
+        assertEquals("https://localhost:5443", new ConfigurationResolver().resolve("remote.url", ""));
+
+        System.setProperty(ConfigurationResolver.SNAPSHOT, "false");
+        try {
+            assertEquals("https://localhost:2443", new ConfigurationResolver().resolve("remote.url", ""));
+        } finally {
+            System.clearProperty(ConfigurationResolver.SNAPSHOT);
+        }
+
+        // Stale once a properties file is edited
+        IO.writeString(new File(dir, "dev.properties"), "remote.port = 4443\n");
+        assertEquals("https://localhost:4443", new ConfigurationResolver().resolve("remote.url", ""));
+    }
+
+    private static byte[] replace(final byte[] bytes, final String from, final String to) throws Exception {
+        final byte[] search = from.getBytes("UTF-16BE");
+        final byte[] replacement = to.getBytes("UTF-16BE");
+
+        final byte[] replaced = bytes.clone();
+        for (int i = 0; i + search.length <= replaced.length; i++) {
+            if (Arrays.equals(search, Arrays.copyOfRange(replaced, i, i + search.length))) {
+                System.arraycopy(replacement, 0, replaced, i, replacement.length);
+            }
+        }
+        return replaced;
+    }
+
+    private byte[] write(final String environments) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Snapshots.write(environments, out);
+
+        final File snapshot = new File(dir, Snapshots.getResourceName(environments));
+        Files.mkdirs(snapshot.getParentFile());
+        IO.copy(out.toByteArray(), snapshot);
+        return out.toByteArray();
+    }
+}
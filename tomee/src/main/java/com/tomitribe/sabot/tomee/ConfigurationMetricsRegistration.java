@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.tomitribe.sabot.tomee;
+
+import org.apache.openejb.monitoring.LocalMBeanServer;
+import org.apache.openejb.monitoring.ObjectNameBuilder;
+import org.tomitribe.sabot.ConfigurationMetrics;
+import org.tomitribe.sabot.ConfigurationResolver;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.management.ObjectName;
+
+/**
+ * Registers the ConfigurationMetrics of the application with the container's MBeanServer
+ * when -Dorg.tomitribe.sabot.metrics=true is set, and removes them when the application is undeployed.
+ */
+@Startup
+@Singleton
+public class ConfigurationMetricsRegistration {
+
+    private ObjectName name;
+
+    @PostConstruct
+    public void register() {
+        final ConfigurationMetrics metrics = ConfigurationResolver.getConfigurationMetrics();
+
+        if (null == metrics) {
+            return;
+        }
+
+        name = new ObjectNameBuilder("org.tomitribe.sabot")
+                .set("type", "ConfigurationMetrics")
+                .set("environment", metrics.getEnvironment().replace(',', '_'))
+                .set("id", Integer.toHexString(System.identityHashCode(metrics)))
+                .build();
+
+        LocalMBeanServer.registerSilently(metrics, name);
+    }
+
+    @PreDestroy
+    public void unregister() {
+        if (null != name) {
+            LocalMBeanServer.unregisterSilently(name);
+            name = null;
+        }
+    }
+}
@@ -17,27 +17,29 @@
 package com.tomitribe.sabot.tomee;
 
 import org.apache.openejb.loader.SystemInstance;
-import org.tomitribe.sabot.ConfigurationObserver;
+import org.tomitribe.sabot.ConfigurationDeltaObserver;
 import org.tomitribe.sabot.ConfigurationResolver;
 
 import javax.ejb.Singleton;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
-import java.util.logging.Logger;
 
 /**
  * Provides properties defined in the TomEE application server environment
  * Adding @Singleton makes sure this class is loaded and the static block is executed
  */
 @Singleton
-public class TomEEConfiguration implements ConfigurationObserver {
+public class TomEEConfiguration implements ConfigurationDeltaObserver {
 
     static {
         //This must occur before anything is initialized
         ConfigurationResolver.registerConfigurationObserver(new TomEEConfiguration());
-    }
 
-    private static final Logger LOGGER = Logger.getLogger(TomEEConfiguration.class.getName());
+        // The server overrides are in, load the configuration while the container deploys the rest
+        ConfigurationResolver.preload();
+    }
 
     /**
      * First loads system properties then appends/overwrites with base.properties if found on the classpath
@@ -47,30 +49,28 @@ public class TomEEConfiguration implements ConfigurationObserver {
     }
 
     /**
-     * See {@link ConfigurationObserver#mergeConfiguration(Properties)}
+     * See {@link ConfigurationDeltaObserver#delta(Map)}
      *
      * @param resolved Currently resolved properties
+     * @return The server properties overriding a resolved property
      */
     @Override
-    public void mergeConfiguration(final Properties resolved) {
+    public Map<String, String> delta(final Map<String, String> resolved) {
 
-        Properties overrides = SystemInstance.get().getProperties();
+        final Properties overrides = SystemInstance.get().getProperties();
 
         if (null == overrides) {
-            overrides = new Properties();
+            return Collections.emptyMap();
         }
 
-        for (final Map.Entry<Object, Object> entry : resolved.entrySet()) {
-            if (overrides.containsKey(entry.getKey())) {
-                final Object newValue = overrides.get(entry.getKey());
-
-                LOGGER.info(String.format("Override config %s from `%s` to `%s`", entry.getKey(), entry.getValue(), newValue));
-
-                entry.setValue(newValue);
+        final Map<String, String> delta = new HashMap<String, String>();
+        for (final String key : resolved.keySet()) {
+            if (overrides.containsKey(key)) {
+                delta.put(key, String.valueOf(overrides.get(key)));
             }
         }
 
-        //This is a one time deal
-        ConfigurationResolver.deregisterConfigurationObserver(this);
+        // Stay registered, the overrides must be applied again when the configuration is reloaded
+        return delta;
     }
 }
@@ -24,6 +24,8 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.tomitribe.sabot.Config;
+import org.tomitribe.sabot.ConfigGroup;
+import org.tomitribe.sabot.ConfigValue;
 import org.tomitribe.sabot.ConfigurationExtension;
 import org.tomitribe.sabot.ConfigurationProducer;
 import org.tomitribe.sabot.ConfigurationResolver;
@@ -33,6 +35,7 @@ import javax.inject.Inject;
 import java.io.File;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 @RunWith(ApplicationComposer.class)
 public class ConfigurationProducerTest {
@@ -73,6 +76,29 @@ public class ConfigurationProducerTest {
         assertEquals(true, allTypes.getaBoolean());
         assertEquals(123, (int) allTypes.getInteger());
         assertEquals("joecool", allTypes.getUsername());
+        assertEquals(123, allTypes.getIntegerValue().get().intValue());
+        assertEquals("integer.value", allTypes.getIntegerValue().getKey());
+        assertNull(allTypes.notInjected);
+    }
+
+    @Test
+    public void group() {
+        final Remote remote = allTypes.getRemote();
+        assertEquals("joecool", remote.username);
+        assertEquals(2443, remote.port);
+        assertEquals(30, remote.timeout);
+        assertEquals("initial", remote.missing);
+    }
+
+    static class Remote {
+
+        private String username;
+        private int port;
+
+        @Config(value = "timeout", defaultValue = "30")
+        private int timeout;
+
+        private String missing = "initial";
     }
 
     @SuppressWarnings("CdiInjectionPointsInspection")
@@ -82,6 +108,10 @@ public class ConfigurationProducerTest {
         @Config(value = "remote.username", defaultValue = "bob")
         private String username;
 
+        // Not an injection point, the missing key does not fail the deployment
+        @Config("not.injected")
+        private String notInjected;
+
         @Inject
         @Config(value = "string.value", defaultValue = "defaultString")
         private String string;
@@ -122,6 +152,14 @@ public class ConfigurationProducerTest {
         @Config(value = "defaultInteger.value", defaultValue = "45")
         private Integer defaultInteger;
 
+        @Inject
+        @Config(value = "integer.value", defaultValue = "45")
+        private ConfigValue<Integer> integerValue;
+
+        @Inject
+        @ConfigGroup("remote")
+        private Remote remote;
+
         public String getUsername() {
             return username;
         }
@@ -166,6 +204,14 @@ public class ConfigurationProducerTest {
             return defaultInteger;
         }
 
+        public ConfigValue<Integer> getIntegerValue() {
+            return integerValue;
+        }
+
+        public Remote getRemote() {
+            return remote;
+        }
+
         @Override
         public String toString() {
             return "AllTypes{" +